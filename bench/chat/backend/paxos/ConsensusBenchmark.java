@@ -0,0 +1,83 @@
+package chat.backend.paxos;
+
+import chat.backend.Message;
+import chat.backend.MessageId;
+import chat.backend.Operation;
+import chat.backend.metrics.Metrics;
+import chat.backend.trace.Tracer;
+import chat.bench.InProcessTransport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static chat.backend.Operation.OpType.SEND_MSG;
+
+/**
+ * Benchmarks the consensus check that {@link PaxosEngine} does after every stage of a round.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsensusBenchmark {
+
+    /**
+     * Number of peers in the group, including the proposer.
+     */
+    @Param({"3", "7", "25"})
+    int peers;
+
+    /**
+     * Stage whose responses are checked. PREPARE also looks for accepted proposals.
+     */
+    @Param({"PREPARE", "ACCEPT"})
+    String stage;
+
+    private PaxosEngine engine;
+    private Metrics metrics;
+    private Tracer tracer;
+    private Path traceFile;
+    private PaxosEngine.PaxosStage paxosStage;
+    private List<PaxosResponse> responses;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        metrics = new Metrics(new InetSocketAddress("localhost", 10_000));
+        traceFile = Files.createTempFile("consensus-bench", ".jsonl");
+        tracer = new Tracer("bench", traceFile);
+        engine = new PaxosEngine(new FailureDetector(1000), metrics, tracer, new InProcessTransport());
+
+        Message message = new Message(new MessageId("bench@localhost:10000", 0), "bench", "Hello there", 0);
+        PaxosProposal proposal = new PaxosProposal(new Operation<>(SEND_MSG, "bench", message));
+        paxosStage = PaxosEngine.PaxosStage.valueOf(stage);
+        responses = new ArrayList<>();
+        for (int i = 1; i < peers; i++) {
+            responses.add(paxosStage == PaxosEngine.PaxosStage.PREPARE
+                    ? PaxosResponse.PROMISED(proposal)
+                    : PaxosResponse.ACCEPTED(proposal));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        tracer.close();
+        metrics.close();
+        Files.deleteIfExists(traceFile);
+    }
+
+    /**
+     * Checks the responses of one stage, all of them in favour.
+     */
+    @Benchmark
+    public PaxosEngine.ConsensusResponse isConsensus() {
+        return engine.isConsensus(responses, paxosStage, peers);
+    }
+}
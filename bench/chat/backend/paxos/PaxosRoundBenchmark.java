@@ -0,0 +1,86 @@
+package chat.backend.paxos;
+
+import chat.backend.Group;
+import chat.backend.Message;
+import chat.backend.MessageId;
+import chat.backend.Operation;
+import chat.backend.Result;
+import chat.backend.history.ChunkedMessageLog;
+import chat.backend.metrics.Metrics;
+import chat.backend.trace.Tracer;
+import chat.bench.InProcessTransport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static chat.backend.Operation.OpType.SEND_MSG;
+
+/**
+ * Benchmarks a whole Paxos round run by {@link PaxosEngine} over an in-process transport.
+ * <p>
+ * The participants agree to everything immediately, so a round measures the work of
+ * the proposer: fanning out each stage on its thread pool, collecting the responses
+ * and checking for consensus, along with the metrics and tracing done on the way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaxosRoundBenchmark {
+
+    /**
+     * Number of peers in the group, including the proposer.
+     */
+    @Param({"3", "7", "25"})
+    int peers;
+
+    private PaxosEngine engine;
+    private Metrics metrics;
+    private Tracer tracer;
+    private Path traceFile;
+    private Group group;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        InProcessTransport transport = new InProcessTransport();
+        Set<InetSocketAddress> addresses = new HashSet<>();
+        // The proposer does not take part in its own round
+        for (int i = 1; i < peers; i++) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 10_000 + i);
+            transport.bind(address, new InProcessTransport.AgreeingParticipant());
+            addresses.add(address);
+        }
+
+        group = new Group("bench", addresses, new ChunkedMessageLog());
+        metrics = new Metrics(new InetSocketAddress("localhost", 10_000));
+        traceFile = Files.createTempFile("paxos-bench", ".jsonl");
+        tracer = new Tracer("bench", traceFile);
+        engine = new PaxosEngine(new FailureDetector(1000), metrics, tracer, transport);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        tracer.close();
+        metrics.close();
+        Files.deleteIfExists(traceFile);
+    }
+
+    /**
+     * Runs a complete PREPARE, ACCEPT and LEARN round for a new message.
+     */
+    @Benchmark
+    public Result<?> run() throws Exception {
+        sequence++;
+        Message message = new Message(new MessageId("bench@localhost:10000", sequence), "bench", "Hello there", sequence);
+        return engine.run(new PaxosProposal(new Operation<>(SEND_MSG, group.name, message)), group);
+    }
+}
@@ -0,0 +1,47 @@
+package chat.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Runs the JMH benchmarks and saves the results as CSV under {@code bench-results},
+ * named after the time of the run, so that runs can be compared with {@link CompareResults}.
+ * <p>
+ * Usage: {@code java chat.bench.Benchmarks [JMH options] [benchmark regexp]}
+ * <p>
+ * Any JMH command line option can be given, for example {@code -p peers=25} or
+ * {@code -f 3}. Without a regular expression every benchmark is run.
+ */
+public class Benchmarks {
+
+    private static final DateTimeFormatter RUN_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /**
+     * Entrypoint for the benchmarks.
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+
+        if (!commandLine.getResult().hasValue()) {
+            Path results = Paths.get("bench-results", LocalDateTime.now().format(RUN_NAME) + ".csv");
+            Files.createDirectories(results.getParent());
+            options.resultFormat(ResultFormatType.CSV).result(results.toString());
+            System.out.println("Results will be saved to " + results);
+        }
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include("chat\\.");
+        }
+
+        new Runner(options.build()).run();
+    }
+}
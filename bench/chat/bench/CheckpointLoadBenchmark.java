@@ -0,0 +1,123 @@
+package chat.bench;
+
+import chat.backend.ChatEngine;
+import chat.backend.Group;
+import chat.logging.Logger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks starting a peer from its data directory: loading {@code groups.dat},
+ * opening the group histories, replaying the write-ahead log and taking a new checkpoint.
+ * <p>
+ * A template peer is filled once per trial and shut down, which writes its checkpoint.
+ * Every measured start copies the template to a directory of its own and starts a peer
+ * there, on a new port since an RMI registry cannot be recreated within a JVM. Data is
+ * written under {@code app_data} in the working directory, and removed afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = "-Dchat.wal.fsync=false")
+public class CheckpointLoadBenchmark {
+
+    private static final String NAME = "bench-load";
+
+    private static final AtomicInteger nextPort = new AtomicInteger(21_000);
+
+    /**
+     * Number of groups in the checkpoint.
+     */
+    @Param({"10", "100"})
+    int groups;
+
+    /**
+     * Number of messages per group.
+     */
+    @Param({"100"})
+    int messages;
+
+    private Path template;
+    private Path directory;
+    private int port;
+    private ChatEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        int templatePort = nextPort.getAndIncrement();
+        Logger.setOwner(NAME + "-log", 0);
+
+        ChatEngine templateEngine = new ChatEngine(NAME, templatePort);
+        for (int i = 0; i < groups; i++) {
+            templateEngine.createGroup("group-" + i);
+        }
+        for (Group group : templateEngine.getGroups()) {
+            for (int i = 0; i < messages; i++) {
+                templateEngine.sendMessage("Message number " + i, group);
+            }
+        }
+        templateEngine.shutdown();
+        template = dataDirectory(templatePort);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyTemplate() throws IOException {
+        port = nextPort.getAndIncrement();
+        directory = dataDirectory(port);
+        try (Stream<Path> paths = Files.walk(template)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path target = directory.resolve(template.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(path, target);
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() throws IOException {
+        engine.shutdown();
+        delete(directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void removeTemplate() throws IOException {
+        delete(template);
+    }
+
+    /**
+     * Starts a peer from the copied data directory.
+     */
+    @Benchmark
+    public ChatEngine load() throws Exception {
+        engine = new ChatEngine(NAME, port);
+        return engine;
+    }
+
+    private static Path dataDirectory(int port) {
+        return Paths.get("app_data", NAME + "-" + port);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package chat.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two benchmark runs saved as CSV by {@link Benchmarks} and reports
+ * the benchmarks that got slower or faster by more than their measurement error.
+ * <p>
+ * Usage: {@code java chat.bench.CompareResults <baseline.csv> <candidate.csv> [threshold %]}
+ * <p>
+ * A change counts when it is larger than both the threshold (5% by default) and the
+ * combined error of the two scores. Exits with status 1 if anything regressed, so that
+ * it can be used in scripts.
+ */
+public class CompareResults {
+
+    /**
+     * Entrypoint for the comparison.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <baseline.csv> <candidate.csv> [threshold %]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.05;
+
+        Map<String, Score> baseline = read(args[0]);
+        Map<String, Score> candidate = read(args[1]);
+
+        int regressions = 0;
+        System.out.printf("%-80s %14s %14s %9s%n", "Benchmark", "Baseline", "Candidate", "Change");
+        for (Map.Entry<String, Score> entry : candidate.entrySet()) {
+            Score before = baseline.get(entry.getKey());
+            Score after = entry.getValue();
+            if (before == null) {
+                System.out.printf("%-80s %14s %14.3f %9s  %s%n", entry.getKey(), "-", after.value, "", after.unit);
+                continue;
+            }
+
+            double change = (after.value - before.value) / before.value;
+            // Higher is better for throughput, lower for everything else
+            double improvement = after.higherIsBetter() ? change : -change;
+            boolean significant = Math.abs(after.value - before.value) > before.error + after.error
+                    && Math.abs(change) > threshold;
+            String verdict = !significant ? "" : improvement < 0 ? "REGRESSION" : "improvement";
+            if (significant && improvement < 0) {
+                regressions++;
+            }
+            System.out.printf("%-80s %14.3f %14.3f %+8.1f%%  %s %s%n",
+                    entry.getKey(), before.value, after.value, change * 100, after.unit, verdict);
+        }
+
+        System.out.printf("%d regression(s)%n", regressions);
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    /**
+     * Reads the scores of a JMH CSV report, keyed by benchmark and parameters.
+     */
+    private static Map<String, Score> read(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file));
+        List<String> header = parseLine(lines.get(0));
+        Map<String, Score> scores = new LinkedHashMap<>();
+
+        for (String line : lines.subList(1, lines.size())) {
+            List<String> columns = parseLine(line);
+            if (columns.size() < 7) {
+                continue;
+            }
+
+            StringBuilder key = new StringBuilder(columns.get(0));
+            for (int i = 7; i < columns.size() && i < header.size(); i++) {
+                if (!columns.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(columns.get(i));
+                }
+            }
+            double error = columns.get(5).isEmpty() || columns.get(5).equals("NaN") ? 0 : Double.parseDouble(columns.get(5));
+            scores.put(key.toString(), new Score(columns.get(1), Double.parseDouble(columns.get(4)), error, columns.get(6)));
+        }
+        return scores;
+    }
+
+    private static List<String> parseLine(String line) {
+        List<String> columns = new ArrayList<>();
+        StringBuilder column = new StringBuilder();
+        boolean quoted = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                columns.add(column.toString());
+                column.setLength(0);
+            } else {
+                column.append(c);
+            }
+        }
+        columns.add(column.toString());
+        return columns;
+    }
+
+    /**
+     * Score of a benchmark in a run.
+     */
+    private static class Score {
+        private final String mode;
+        private final double value;
+        private final double error;
+        private final String unit;
+
+        private Score(String mode, double value, double error, String unit) {
+            this.mode = mode;
+            this.value = value;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        private boolean higherIsBetter() {
+            return mode.equals("thrpt");
+        }
+    }
+}
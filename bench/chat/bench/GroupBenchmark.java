@@ -0,0 +1,67 @@
+package chat.bench;
+
+import chat.backend.Group;
+import chat.backend.Message;
+import chat.backend.MessageId;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks adding messages to the history of a group and copying a group,
+ * as done for every learned message and every group handed to another peer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupBenchmark {
+
+    /**
+     * Number of messages in the group before the benchmark starts.
+     */
+    @Param({"1000", "100000"})
+    int historySize;
+
+    private Group group;
+    private long sequence;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        // A fresh group per iteration, so that the appends do not pile up over the whole run
+        group = new Group("bench");
+        for (sequence = 0; sequence < historySize; sequence++) {
+            group.addMessageToGroupHistory(newMessage(sequence));
+        }
+    }
+
+    /**
+     * Adds a new message to the history, including the check for duplicates.
+     */
+    @Benchmark
+    public boolean addMessage() {
+        return group.addMessageToGroupHistory(newMessage(sequence++));
+    }
+
+    /**
+     * Adds a message that is already in the history, which is only checked for.
+     */
+    @Benchmark
+    public boolean addDuplicateMessage() {
+        return group.addMessageToGroupHistory(newMessage(0));
+    }
+
+    /**
+     * Copies the group, as sent to a peer that joins it.
+     */
+    @Benchmark
+    public Group copy() {
+        return new Group(group);
+    }
+
+    private static Message newMessage(long sequence) {
+        return new Message(new MessageId("bench@localhost:10000", sequence), "bench", "Message number " + sequence, sequence);
+    }
+}
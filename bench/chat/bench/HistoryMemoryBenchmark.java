@@ -0,0 +1,65 @@
+package chat.bench;
+
+import chat.backend.Message;
+import chat.backend.history.ChunkedMessageLog;
+import chat.backend.history.MessageLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reports the heap used per message by a list of Message objects, which is how
+ * histories used to be stored, and by the compact in-memory message log.
+ * <p>
+ * Usage: {@code java -Xmx4g chat.bench.HistoryMemoryBenchmark [messageCount]}
+ */
+public class HistoryMemoryBenchmark {
+
+    private static final int SENDER_COUNT = 20;
+
+    /**
+     * Entrypoint for the benchmark.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        long before = usedHeap();
+        List<Message> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            list.add(newMessage(i));
+        }
+        long listBytes = usedHeap() - before;
+        report("ArrayList<Message>", listBytes, count, list.size());
+        list = null;
+
+        before = usedHeap();
+        MessageLog log = new ChunkedMessageLog();
+        for (int i = 0; i < count; i++) {
+            log.append(newMessage(i));
+        }
+        long logBytes = usedHeap() - before;
+        report("ChunkedMessageLog", logBytes, count, log.size());
+    }
+
+    /**
+     * Creates a message the way it arrives over RMI, with its own copy of the sender name.
+     */
+    private static Message newMessage(int i) {
+        String from = new String("sender-" + (i % SENDER_COUNT));
+        return new Message(from, "Message number " + i + " with some text", 1_700_000_000_000L + i);
+    }
+
+    private static void report(String name, long bytes, int count, int size) {
+        System.out.printf("%-20s %,d messages: %,d bytes, %.1f bytes/message%n",
+                name, size, bytes, (double) bytes / count);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,61 @@
+package chat.bench;
+
+import chat.backend.Result;
+import chat.backend.paxos.ParticipantLocator;
+import chat.backend.paxos.PaxosParticipant;
+import chat.backend.paxos.PaxosProposal;
+import chat.backend.paxos.PaxosResponse;
+
+import java.net.InetSocketAddress;
+import java.rmi.NotBoundException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transport that hands proposals straight to participants in the same JVM, without
+ * RMI or serialization, so that benchmarks measure the protocol and not the network.
+ */
+public class InProcessTransport implements ParticipantLocator {
+    private final Map<InetSocketAddress, PaxosParticipant> participants = new ConcurrentHashMap<>();
+
+    /**
+     * Makes a participant reachable at the given address.
+     *
+     * @param address     the address of the participant
+     * @param participant the participant
+     */
+    public void bind(InetSocketAddress address, PaxosParticipant participant) {
+        participants.put(address, participant);
+    }
+
+    @Override
+    public PaxosParticipant locate(InetSocketAddress address) throws NotBoundException {
+        PaxosParticipant participant = participants.get(address);
+        if (participant == null) {
+            throw new NotBoundException("No participant at " + address);
+        }
+        return participant;
+    }
+
+    /**
+     * Participant that agrees to every proposal and learns it without doing anything.
+     */
+    public static class AgreeingParticipant implements PaxosParticipant {
+        private static final Result<String> LEARNED = Result.success("Learned");
+
+        @Override
+        public PaxosResponse prepare(PaxosProposal paxosProposal) {
+            return PaxosResponse.PROMISED(paxosProposal);
+        }
+
+        @Override
+        public PaxosResponse accept(PaxosProposal paxosProposal) {
+            return PaxosResponse.ACCEPTED(paxosProposal);
+        }
+
+        @Override
+        public PaxosResponse learn(PaxosProposal paxosProposal) {
+            return PaxosResponse.OK(paxosProposal, LEARNED);
+        }
+    }
+}
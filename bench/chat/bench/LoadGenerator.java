@@ -0,0 +1,306 @@
+package chat.bench;
+
+import chat.backend.ChatEngine;
+import chat.backend.Group;
+import chat.backend.GroupMode;
+import chat.backend.SendResult;
+import chat.backend.metrics.LatencyHistogram;
+import chat.backend.metrics.LatencySnapshot;
+import chat.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Starts a number of peers in this JVM, puts them in groups and sends messages and
+ * files between them at a target rate, reporting throughput and commit latency as it goes.
+ * <p>
+ * Operations are sent on a fixed schedule whether or not earlier ones have finished
+ * (an open-loop model), and their latency is counted from when they were due rather
+ * than from when a thread got to them. So when the peers cannot keep up, the backlog
+ * shows up in the latencies instead of silently lowering the rate.
+ * <p>
+ * Usage: {@code java chat.bench.LoadGenerator [--option value]...}
+ * <ul>
+ *     <li>{@code --peers}: number of peers (default 3)</li>
+ *     <li>{@code --groups}: number of groups (default 1)</li>
+ *     <li>{@code --members}: number of peers in each group (default all of them)</li>
+ *     <li>{@code --mode}: {@code consensus} or {@code crdt}, how the groups are replicated (default consensus)</li>
+ *     <li>{@code --senders}: number of the members of each group that send to it (default all of them)</li>
+ *     <li>{@code --rate}: operations per second over all groups (default 100)</li>
+ *     <li>{@code --duration}: seconds to send for (default 30)</li>
+ *     <li>{@code --warmup}: seconds to send for before measuring (default 5)</li>
+ *     <li>{@code --interval}: seconds between reports (default 1)</li>
+ *     <li>{@code --messageBytes}: length of a message (default 100)</li>
+ *     <li>{@code --fileRatio}: fraction of the operations that send a file (default 0)</li>
+ *     <li>{@code --fileBytes}: size of a file (default 65536)</li>
+ *     <li>{@code --threads}: threads sending operations (default 64)</li>
+ *     <li>{@code --port}: port of the first peer, the others follow it (default 22000)</li>
+ * </ul>
+ * Peers keep their data under {@code app_data} in the working directory, which is removed
+ * afterwards. Run with {@code -Dchat.wal.fsync=false} to leave the disk out of the measurement.
+ */
+public class LoadGenerator {
+    private static final String NAME = "load";
+
+    private final Map<String, String> options;
+    private final Random random = new Random(42);
+
+    private final List<ChatEngine> peers = new ArrayList<>();
+
+    /**
+     * Groups to send to, each with the copy of the group of every peer sending to it.
+     */
+    private final List<List<Member>> groups = new ArrayList<>();
+
+    private final LatencyHistogram intervalLatency = new LatencyHistogram();
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+
+    private File file;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    /**
+     * Entrypoint for the load generator.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                System.err.println("Unexpected argument " + args[i]);
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+
+        LoadGenerator generator = new LoadGenerator(options);
+        try {
+            generator.start();
+            generator.run();
+        } finally {
+            generator.stop();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Starts the peers and sets up the groups.
+     */
+    private void start() throws IOException {
+        int peerCount = option("peers", 3);
+        int groupCount = option("groups", 1);
+        int members = Math.min(peerCount, option("members", peerCount));
+        int port = option("port", 22_000);
+        GroupMode mode = GroupMode.valueOf(options.getOrDefault("mode", "consensus").toUpperCase());
+        Logger.setOwner(NAME, port);
+
+        for (int i = 0; i < peerCount; i++) {
+            peers.add(new ChatEngine(NAME + "-" + i, port + i));
+        }
+
+        // Spread the groups over the peers, each group starting at the next peer
+        for (int g = 0; g < groupCount; g++) {
+            String name = "group-" + g;
+            ChatEngine creator = peers.get(g % peerCount);
+            if (!creator.createGroup(name, mode)) {
+                throw new IllegalStateException("Could not create " + name);
+            }
+            for (int m = 1; m < members; m++) {
+                ChatEngine peer = peers.get((g + m) % peerCount);
+                if (!peer.joinGroup("localhost", port + g % peerCount, name).isPresent()) {
+                    throw new IllegalStateException(peer.getDisplayName() + " could not join " + name);
+                }
+            }
+
+            List<Member> group = new ArrayList<>();
+            for (int m = 0; m < Math.min(members, option("senders", members)); m++) {
+                ChatEngine peer = peers.get((g + m) % peerCount);
+                group.add(new Member(peer, find(peer, name)));
+            }
+            groups.add(group);
+        }
+
+        if (option("fileRatio", 0.0) > 0) {
+            file = File.createTempFile("load-", ".bin");
+            file.deleteOnExit();
+            byte[] bytes = new byte[option("fileBytes", 65_536)];
+            random.nextBytes(bytes);
+            Files.write(file.toPath(), bytes);
+        }
+
+        System.out.printf("%d peers, %d %s groups of %d, %d ops/s%n", peerCount, groupCount,
+                mode.name().toLowerCase(), members, option("rate", 100));
+    }
+
+    /**
+     * Sends operations on schedule, reporting every interval.
+     */
+    private void run() throws InterruptedException {
+        int rate = option("rate", 100);
+        long warmupNanos = TimeUnit.SECONDS.toNanos(option("warmup", 5));
+        long endNanos = warmupNanos + TimeUnit.SECONDS.toNanos(option("duration", 30));
+        long intervalNanos = TimeUnit.SECONDS.toNanos(option("interval", 1));
+        double fileRatio = option("fileRatio", 0.0);
+        String contents = "x".repeat(option("messageBytes", 100));
+
+        ExecutorService senders = Executors.newFixedThreadPool(option("threads", 64));
+        System.out.printf("%8s %10s %10s %8s %8s %9s %10s %10s %10s %10s%n",
+                "time", "sent/s", "commit/s", "failed", "rejected", "backlog", "p50 ms", "p99 ms", "p999 ms", "max ms");
+
+        long start = System.nanoTime();
+        long nextReport = start + intervalNanos;
+        boolean measuring = warmupNanos == 0;
+        long sent = 0;
+        long lastCommitted = 0;
+        long lastSent = 0;
+        long failedInWarmup = 0;
+        long rejectedInWarmup = 0;
+
+        for (long i = 0; ; i++) {
+            long due = start + i * 1_000_000_000L / rate;
+            if (due - start >= endNanos) {
+                break;
+            }
+
+            // Report and switch from warmup to measuring while waiting for the next operation
+            long now = System.nanoTime();
+            while (now < due || now >= nextReport) {
+                if (now >= nextReport) {
+                    if (!measuring && now - start >= warmupNanos) {
+                        measuring = true;
+                        totalLatency.reset();
+                        failedInWarmup = failed.get();
+                        rejectedInWarmup = rejected.get();
+                        System.out.println("-- warmup done --");
+                    }
+                    long done = committed.get();
+                    report(now - start, (sent - lastSent) * 1e9 / intervalNanos,
+                            (done - lastCommitted) * 1e9 / intervalNanos, intervalLatency.snapshot());
+                    intervalLatency.reset();
+                    lastSent = sent;
+                    lastCommitted = done;
+                    nextReport += intervalNanos;
+                } else {
+                    LockSupport.parkNanos(Math.min(due, nextReport) - now);
+                }
+                now = System.nanoTime();
+            }
+
+            List<Member> group = groups.get(random.nextInt(groups.size()));
+            Member member = group.get(random.nextInt(group.size()));
+            boolean sendFile = file != null && random.nextDouble() < fileRatio;
+            inFlight.incrementAndGet();
+            senders.execute(() -> send(member, sendFile, contents, due));
+            sent++;
+        }
+
+        senders.shutdown();
+        senders.awaitTermination(1, TimeUnit.MINUTES);
+
+        LatencySnapshot total = totalLatency.snapshot();
+        double seconds = (endNanos - warmupNanos) / 1e9;
+        System.out.printf("Total: %d committed (%.1f/s), %d failed, %d rejected, %s%n",
+                total.getCount(), total.getCount() / seconds, failed.get() - failedInWarmup,
+                rejected.get() - rejectedInWarmup, total);
+    }
+
+    private void send(Member member, boolean sendFile, String contents, long due) {
+        SendResult result;
+        try {
+            result = sendFile ? member.peer.sendFile(file, member.group) : member.peer.sendMessage(contents, member.group);
+        } catch (IOException | RuntimeException e) {
+            result = SendResult.FAILED;
+        }
+
+        if (result == SendResult.REJECTED) {
+            rejected.incrementAndGet();
+        } else if (result == SendResult.SENT) {
+            long nanos = System.nanoTime() - due;
+            intervalLatency.record(nanos);
+            totalLatency.record(nanos);
+            committed.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+        inFlight.decrementAndGet();
+    }
+
+    private void report(long elapsedNanos, double sentPerSecond, double committedPerSecond, LatencySnapshot latency) {
+        System.out.printf("%7.1fs %10.1f %10.1f %8d %8d %9d %10.2f %10.2f %10.2f %10.2f%n",
+                elapsedNanos / 1e9, sentPerSecond, committedPerSecond, failed.get(), rejected.get(), inFlight.get(),
+                latency.getP50Micros() / 1000.0, latency.getP99Micros() / 1000.0,
+                latency.getP999Micros() / 1000.0, latency.getMaxMicros() / 1000.0);
+    }
+
+    /**
+     * Shuts the peers down and removes their data.
+     */
+    private void stop() throws IOException {
+        for (ChatEngine peer : peers) {
+            peer.shutdown();
+        }
+        int port = option("port", 22_000);
+        for (int i = 0; i < peers.size(); i++) {
+            delete(Paths.get("app_data", NAME + "-" + i + "-" + (port + i)));
+        }
+    }
+
+    private static Group find(ChatEngine peer, String name) {
+        Optional<Group> group = peer.getGroups().stream().filter(g -> g.name.equals(name)).findFirst();
+        return group.orElseThrow(() -> new IllegalStateException(peer.getDisplayName() + " has no group " + name));
+    }
+
+    private int option(String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+    }
+
+    private double option(String name, double defaultValue) {
+        return options.containsKey(name) ? Double.parseDouble(options.get(name)) : defaultValue;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * A peer in a group, with its own copy of the group.
+     */
+    private static class Member {
+        private final ChatEngine peer;
+        private final Group group;
+
+        private Member(ChatEngine peer, Group group) {
+            this.peer = peer;
+            this.group = group;
+        }
+    }
+}
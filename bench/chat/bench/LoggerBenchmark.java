@@ -0,0 +1,42 @@
+package chat.bench;
+
+import chat.logging.Logger;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the cost of logging for the calling thread. Once the queue of the
+ * logger is full, this is also the rate at which lines are written to the file.
+ * <p>
+ * The log file is written under {@code app_data/bench-logger-0} in the working directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggerBenchmark {
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Logger.setOwner("bench-logger", 0);
+    }
+
+    @Benchmark
+    public void logInfo() {
+        Logger.logInfo("Paxos: Consensus Preempted i.e. received ACCEPTED proposal during PREPARE phase");
+    }
+
+    @Benchmark
+    public void logInfoFormatted() {
+        Logger.logInfo("Resynced group %s through %s", "bench", ++sequence);
+    }
+
+    @Benchmark
+    public void logDebugFiltered() {
+        Logger.logDebug("Paxos %s: Consensus reached (consensus ratio=%.2f)", "ACCEPT", 1.0);
+    }
+}
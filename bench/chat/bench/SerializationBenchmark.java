@@ -0,0 +1,98 @@
+package chat.bench;
+
+import chat.backend.Group;
+import chat.backend.Message;
+import chat.backend.MessageId;
+import chat.backend.Operation;
+import chat.backend.paxos.PaxosProposal;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import static chat.backend.Operation.OpType.SEND_MSG;
+
+/**
+ * Benchmarks the Java serialization of what peers send each other over RMI:
+ * operations, the proposals that carry them, and whole groups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    /**
+     * Number of messages in the serialized group.
+     */
+    @Param({"1000"})
+    int historySize;
+
+    private Operation<Message> operation;
+    private PaxosProposal proposal;
+    private Group group;
+    private byte[] operationBytes;
+    private byte[] proposalBytes;
+    private byte[] groupBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Message message = new Message(new MessageId("bench@localhost:10000", 0), "bench", "Hello there", 0);
+        operation = new Operation<>(SEND_MSG, "bench", message);
+        proposal = new PaxosProposal(operation);
+        group = new Group("bench");
+        for (int i = 0; i < historySize; i++) {
+            group.addMessageToGroupHistory(new Message(new MessageId("bench@localhost:10000", i), "bench", "Message number " + i, i));
+        }
+
+        operationBytes = serialize(operation);
+        proposalBytes = serialize(proposal);
+        groupBytes = serialize(group);
+    }
+
+    @Benchmark
+    public byte[] serializeOperation() throws IOException {
+        return serialize(operation);
+    }
+
+    @Benchmark
+    public Object deserializeOperation() throws IOException, ClassNotFoundException {
+        return deserialize(operationBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeProposal() throws IOException {
+        return serialize(proposal);
+    }
+
+    @Benchmark
+    public Object deserializeProposal() throws IOException, ClassNotFoundException {
+        return deserialize(proposalBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeGroup() throws IOException {
+        return serialize(group);
+    }
+
+    @Benchmark
+    public Object deserializeGroup() throws IOException, ClassNotFoundException {
+        return deserialize(groupBytes);
+    }
+
+    private static byte[] serialize(Serializable object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+}
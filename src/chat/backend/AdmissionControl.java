@@ -0,0 +1,219 @@
+package chat.backend;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the proposals a peer runs at once for each group, and how many may wait
+ * for their turn, per group and over all groups.
+ * <p>
+ * Proposals of one group from one peer only compete with each other in the PREPARE
+ * stage, so running them a few at a time is faster than running them all at once.
+ * What happens when the queues are full is set by the {@link Policy}.
+ * <p>
+ * Configured through system properties:
+ * <ul>
+ *     <li>{@code chat.admission.policy}: {@code block}, {@code failFast} or {@code shedOldest} (default {@code block})</li>
+ *     <li>{@code chat.admission.groupConcurrency}: proposals running at once per group (default 1)</li>
+ *     <li>{@code chat.admission.groupQueue}: proposals waiting per group (default 64)</li>
+ *     <li>{@code chat.admission.peerQueue}: proposals waiting over all groups (default 1024)</li>
+ * </ul>
+ */
+class AdmissionControl {
+
+    /**
+     * What to do with a proposal that finds the queues full.
+     */
+    enum Policy {
+        /**
+         * Wait until there is room in the queues.
+         */
+        BLOCK,
+
+        /**
+         * Reject the new proposal.
+         */
+        FAIL_FAST,
+
+        /**
+         * Reject the oldest proposal waiting for the group and queue the new one,
+         * since the oldest has waited the longest and is the most likely to be stale.
+         */
+        SHED_OLDEST
+    }
+
+    private static final Policy POLICY = parsePolicy(System.getProperty("chat.admission.policy", "block"));
+    private static final int GROUP_CONCURRENCY = Integer.getInteger("chat.admission.groupConcurrency", 1);
+    private static final int GROUP_QUEUE = Integer.getInteger("chat.admission.groupQueue", 64);
+    private static final int PEER_QUEUE = Integer.getInteger("chat.admission.peerQueue", 1024);
+
+    private final Policy policy;
+    private final int groupConcurrency;
+    private final int groupQueue;
+    private final int peerQueue;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when a proposal leaves a queue, for the callers blocked on full queues.
+     */
+    private final Condition roomLeft = lock.newCondition();
+
+    private final Map<String, Gate> gates = new HashMap<>();
+
+    /**
+     * Number of proposals waiting over all groups.
+     */
+    private int waiting;
+
+    /**
+     * Creates admission control configured through system properties.
+     */
+    AdmissionControl() {
+        this(POLICY, GROUP_CONCURRENCY, GROUP_QUEUE, PEER_QUEUE);
+    }
+
+    /**
+     * Creates admission control with the given limits.
+     *
+     * @param policy           what to do when the queues are full
+     * @param groupConcurrency proposals running at once per group
+     * @param groupQueue       proposals waiting per group
+     * @param peerQueue        proposals waiting over all groups
+     */
+    AdmissionControl(Policy policy, int groupConcurrency, int groupQueue, int peerQueue) {
+        this.policy = policy;
+        this.groupConcurrency = Math.max(1, groupConcurrency);
+        this.groupQueue = Math.max(0, groupQueue);
+        this.peerQueue = Math.max(0, peerQueue);
+    }
+
+    /**
+     * Waits for the turn of a proposal to the given group. A proposal that is
+     * admitted must be followed by a call to {@link #release(String)}.
+     *
+     * @param groupName the group
+     * @return true if the proposal may run, false if it was rejected
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    boolean acquire(String groupName) throws InterruptedException {
+        lock.lock();
+        try {
+            Gate gate;
+            while (true) {
+                // Looked up again after waiting, since the gate of an idle group is dropped
+                gate = gates.computeIfAbsent(groupName, name -> new Gate());
+                if (gate.running < groupConcurrency && gate.queue.isEmpty()) {
+                    gate.running++;
+                    return true;
+                }
+                if (gate.queue.size() < groupQueue && waiting < peerQueue) {
+                    break;
+                }
+
+                if (policy == Policy.FAIL_FAST) {
+                    return false;
+                } else if (policy == Policy.SHED_OLDEST && !gate.queue.isEmpty()) {
+                    shed(gate.queue.poll());
+                } else if (policy == Policy.SHED_OLDEST || groupQueue == 0 || peerQueue == 0) {
+                    // Nothing of this group to shed, or nowhere to wait at all
+                    return false;
+                } else {
+                    roomLeft.await();
+                }
+            }
+
+            Ticket ticket = new Ticket(lock.newCondition());
+            gate.queue.add(ticket);
+            waiting++;
+            try {
+                while (!ticket.admitted && !ticket.shed) {
+                    ticket.turn.await();
+                }
+            } catch (InterruptedException e) {
+                if (ticket.admitted) {
+                    // Our turn came anyway, pass it on
+                    releaseLocked(groupName, gate);
+                } else if (!ticket.shed) {
+                    gate.queue.remove(ticket);
+                    waiting--;
+                    roomLeft.signalAll();
+                }
+                throw e;
+            }
+            return ticket.admitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a proposal admitted by {@link #acquire(String)}, letting the next one of the group run.
+     *
+     * @param groupName the group
+     */
+    void release(String groupName) {
+        lock.lock();
+        try {
+            releaseLocked(groupName, gates.get(groupName));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseLocked(String groupName, Gate gate) {
+        Ticket next = gate.queue.poll();
+        if (next == null) {
+            gate.running--;
+            if (gate.running == 0) {
+                gates.remove(groupName);
+            }
+            return;
+        }
+
+        // The slot goes straight to the next proposal
+        waiting--;
+        next.admitted = true;
+        next.turn.signal();
+        roomLeft.signalAll();
+    }
+
+    private void shed(Ticket ticket) {
+        waiting--;
+        ticket.shed = true;
+        ticket.turn.signal();
+    }
+
+    private static Policy parsePolicy(String value) {
+        for (Policy policy : Policy.values()) {
+            if (policy.name().replace("_", "").equalsIgnoreCase(value)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown admission policy: " + value);
+    }
+
+    /**
+     * Proposals of a group, running or waiting.
+     */
+    private static class Gate {
+        private int running;
+        private final ArrayDeque<Ticket> queue = new ArrayDeque<>();
+    }
+
+    /**
+     * A proposal waiting for its turn.
+     */
+    private static class Ticket {
+        private final Condition turn;
+        private boolean admitted;
+        private boolean shed;
+
+        private Ticket(Condition turn) {
+            this.turn = turn;
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package chat.backend;
 
+import chat.backend.history.HistoryPage;
+import chat.backend.history.HistoryQuery;
+import chat.backend.search.SearchPage;
+import chat.backend.search.SearchQuery;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
@@ -25,19 +30,21 @@ public interface ChatBackend {
      *
      * @param message the message to send.
      * @param group   the group to send the message to.
-     * @return true if the message was sent successfully, false otherwise.
+     * @return {@link SendResult#SENT} if the message was sent, {@link SendResult#REJECTED} if the peer
+     * is overloaded and did not try, {@link SendResult#FAILED} otherwise.
      */
-    boolean sendMessage(String message, Group group);
+    SendResult sendMessage(String message, Group group);
 
     /**
      * Sends a file to a group.
      *
      * @param file  the file to send.
      * @param group the group to send the file to.
-     * @return true if the file was sent successfully, false otherwise.
+     * @return {@link SendResult#SENT} if the file was sent, {@link SendResult#REJECTED} if the peer
+     * is overloaded and did not try, {@link SendResult#FAILED} otherwise.
      * @throws IOException if there was an error reading or sending the file.
      */
-    boolean sendFile(File file, Group group) throws IOException;
+    SendResult sendFile(File file, Group group) throws IOException;
 
     /**
      * Returns a list of all the connected groups.
@@ -52,7 +59,58 @@ public interface ChatBackend {
      * @param name the name of the group to create.
      * @return true if the group was created successfully, false otherwise.
      */
-    boolean createGroup(String name);
+    default boolean createGroup(String name) {
+        return createGroup(name, GroupMode.CONSENSUS);
+    }
+
+    /**
+     * Creates a new group with the given name, replicated in the given mode.
+     *
+     * @param name the name of the group to create.
+     * @param mode how the history of the group is replicated.
+     * @return true if the group was created successfully, false otherwise.
+     */
+    boolean createGroup(String name, GroupMode mode);
+
+    /**
+     * Reads a window of the history of a group, oldest messages first, one page at a time.
+     * The sequence number of a message is its position in the group history, so
+     * {@link HistoryQuery#since(long)} returns only the messages a client has not seen yet.
+     * The history of a {@link GroupMode#CRDT} group is in causal order, where a message
+     * that arrives late takes its place among the earlier ones and moves the later ones up.
+     *
+     * @param group    the group to read.
+     * @param query    the window of sequence numbers and timestamps to read.
+     * @param cursor   the cursor returned with the previous page, or {@link HistoryPage#FIRST_PAGE}.
+     * @param pageSize the maximum number of messages to return.
+     * @return the page of messages.
+     */
+    HistoryPage readHistory(Group group, HistoryQuery query, long cursor, int pageSize);
+
+    /**
+     * Searches the history of a group, newest messages first, one page at a time.
+     *
+     * @param group    the group to search.
+     * @param query    the words and filters to match.
+     * @param cursor   the cursor returned with the previous page, or {@link SearchPage#FIRST_PAGE}.
+     * @param pageSize the maximum number of messages to return.
+     * @return the page of matching messages.
+     */
+    SearchPage search(Group group, SearchQuery query, int cursor, int pageSize);
+
+    /**
+     * Registers a listener that is told about new messages and changed groups.
+     *
+     * @param listener the listener to add.
+     */
+    void addGroupListener(GroupListener listener);
+
+    /**
+     * Unregisters a listener added with {@link #addGroupListener(GroupListener)}.
+     *
+     * @param listener the listener to remove.
+     */
+    void removeGroupListener(GroupListener listener);
 
     /**
      * Shuts down the chat backend and frees any resources used.
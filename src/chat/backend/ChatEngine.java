@@ -1,9 +1,23 @@
 package chat.backend;
 
+import chat.backend.paxos.FailureDetector;
 import chat.backend.paxos.PaxosEngine;
 import chat.backend.paxos.PaxosParticipant;
 import chat.backend.paxos.PaxosProposal;
 import chat.backend.paxos.PaxosResponse;
+import chat.backend.history.HistoryDigest;
+import chat.backend.history.HistoryPage;
+import chat.backend.history.HistoryQuery;
+import chat.backend.history.HistoryStore;
+import chat.backend.history.MappedHistory;
+import chat.backend.metrics.GroupMetrics;
+import chat.backend.metrics.Metrics;
+import chat.backend.search.SearchIndexStore;
+import chat.backend.search.SearchPage;
+import chat.backend.search.SearchQuery;
+import chat.backend.storage.AcceptorStore;
+import chat.backend.storage.WriteAheadLog;
+import chat.backend.trace.Tracer;
 import chat.logging.Logger;
 
 import java.io.*;
@@ -11,15 +25,26 @@ import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static chat.backend.Operation.OpType.*;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 /**
  * Implementation of the ChatBackend interface and PaxosParticipant interface for a distributed chat engine.
@@ -37,73 +62,903 @@ public class ChatEngine extends UnicastRemoteObject implements ChatPeer, ChatBac
     private final String displayName;
 
     /**
-     * Groups that the peer is a part of.
+     * Groups that the peer is a part of. The state of each group is only changed
+     * by the tasks of its mailbox.
      */
     private final Map<String, Group> groups;
 
+    /**
+     * Threads and stubs shared with the other peers running in this JVM.
+     */
+    private final PeerHost host;
+
+    /**
+     * Whether the host was created for this peer alone, and is shut down with it.
+     */
+    private final boolean ownsHost;
+
+    /**
+     * Registry of the peer's own, unexported on shutdown to free its port, or null if the
+     * peer is bound in the registry of its host.
+     */
+    private final Registry registry;
+
+    /**
+     * Cleared on shutdown, so that the tasks left on the shared threads stop.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Threads shared by the mailboxes of all groups.
+     */
+    private final ExecutorService groupExecutor;
+
+    /**
+     * Mailboxes of the groups keyed by group name, so that the operations of a group
+     * run strictly in order while different groups proceed in parallel.
+     */
+    private final Map<String, SerialExecutor> mailboxes = new ConcurrentHashMap<>();
+
+    /**
+     * Whether write-ahead log appends are fsynced before they are acknowledged.
+     */
+    private static final boolean DURABLE_WAL = Boolean.parseBoolean(System.getProperty("chat.wal.fsync", "true"));
+
+    /**
+     * Log of every operation applied to the groups since the last checkpoint.
+     */
+    private final WriteAheadLog wal;
+
+    /**
+     * How often a checkpoint is taken while the log has records, or 0 to only take one by size.
+     */
+    private static final long CHECKPOINT_INTERVAL_MS = Long.getLong("chat.checkpoint.intervalMillis", 300_000);
+
+    /**
+     * Size the log may grow to before a checkpoint is taken, which bounds the replay after a crash.
+     */
+    private static final long CHECKPOINT_WAL_BYTES = Long.getLong("chat.checkpoint.walBytes", 64L * 1024 * 1024);
+
+    /**
+     * How often the size of the log is checked.
+     */
+    private static final long CHECKPOINT_CHECK_MS = 1000;
+
+    /**
+     * Held for reading while an operation is logged and applied, and for writing while a
+     * checkpoint captures the groups, so that no logged operation is missing from both.
+     */
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+    /**
+     * Serializes checkpoints, which write the same files.
+     */
+    private final Object checkpointWriter = new Object();
+
+    /**
+     * Set while a checkpoint is queued or running in the background.
+     */
+    private final AtomicBoolean checkpointPending = new AtomicBoolean();
+
+    /**
+     * When the last checkpoint was taken, in {@link System#nanoTime()}.
+     */
+    private volatile long lastCheckpoint = System.nanoTime();
+
+    /**
+     * The scheduled checks for a checkpoint, cancelled on shutdown.
+     */
+    private final ScheduledFuture<?> checkpoints;
+
+    /**
+     * Origin used in the IDs of messages created by this peer.
+     */
+    private final String messageOrigin;
+
+    /**
+     * Sequence number for the next message created by this peer, restored from
+     * the checkpoint and the log so that it is never reused.
+     */
+    private final AtomicLong messageSequence = new AtomicLong();
+
+    /**
+     * Memory-mapped message histories of the groups.
+     */
+    private final HistoryStore historyStore;
+
+    /**
+     * Listeners told about every message added and every group changed.
+     */
+    private final List<GroupListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Search indexes of the groups, stored next to their histories.
+     */
+    private final SearchIndexStore searchIndexes;
+
+    /**
+     * Latencies and counters of this peer, exposed through JMX.
+     */
+    private final Metrics metrics;
+
+    /**
+     * Limits the messages and files this peer proposes at once and queues for each group.
+     */
+    private final AdmissionControl admission = new AdmissionControl();
+
+    /**
+     * Spreads the operations of CRDT groups to the other peers in the background.
+     */
+    private final Replicator replicator;
+
+    /**
+     * Spans of the Paxos rounds this peer takes part in, written to its trace file when sampled.
+     */
+    private final Tracer tracer;
+
     /**
      * Create a ChatEngine instance for the given display name and port.
      */
     public ChatEngine(String displayName, int port) throws RemoteException, MalformedURLException {
-        super();
+        this(displayName, port, new PeerHost(), true);
+    }
 
-        // Load the previous state (groups) from disk
-        Map<String, Group> tempGroups;
-        String fileName = String.format("app_data/%s-%d/groups.dat", displayName, port);
-        try (FileInputStream file = new FileInputStream(fileName)) {
-            ObjectInputStream stream = new ObjectInputStream(file);
-            tempGroups = (Map<String, Group>) stream.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            tempGroups = new HashMap<>();
-        }
+    /**
+     * Create a ChatEngine instance for the given display name and port that shares
+     * its threads and the stubs of other peers with the other peers of the given host.
+     * The host is left running when the peer is shut down.
+     */
+    public ChatEngine(String displayName, int port, PeerHost host) throws RemoteException, MalformedURLException {
+        this(displayName, port, host, false);
+    }
 
+    private ChatEngine(String displayName, int port, PeerHost host, boolean ownsHost)
+            throws RemoteException, MalformedURLException {
+        super();
+
+        this.host = host;
+        this.ownsHost = ownsHost;
+        this.groupExecutor = host.groupExecutor();
+        this.syncExecutor = host.syncExecutor();
+        this.heartbeatExecutor = host.heartbeatExecutor();
+        this.replicator = new Replicator(this::deliver, syncExecutor);
         this.displayName = displayName;
         this.address = new InetSocketAddress("localhost", port);
-        this.groups = tempGroups;
+        this.messageOrigin = String.format("%s@%s:%d", displayName, address.getHostString(), port);
+        this.metrics = new Metrics(address);
+        this.groups = new ConcurrentHashMap<>();
+        this.historyStore = new HistoryStore(FileSystems.getDefault().getPath(dataFileName("history")));
+        this.searchIndexes = new SearchIndexStore(historyStore);
+        this.tracer = new Tracer(messageOrigin, FileSystems.getDefault().getPath(dataFileName("traces.jsonl")),
+                host.traceWriter());
 
-        LocateRegistry.createRegistry(port);
-        Naming.rebind(String.format("rmi://localhost:%d/DistributedChatPeer", port), this);
-        Logger.logInfo(String.format("Chat engine start on port %s", address));
+        // Load the previous state (groups) from the last checkpoint and the write-ahead log
+        try {
+            this.wal = new WriteAheadLog(FileSystems.getDefault().getPath(dataFileName("wal")), DURABLE_WAL);
+            recover();
 
-        this.paxosEngine = new PaxosEngine();
+            this.acceptorStore = new AcceptorStore(FileSystems.getDefault().getPath(dataFileName("paxos")), DURABLE_WAL);
+            recoverAcceptorState();
+        } catch (IOException e) {
+            // Not started, so that nothing on disk is overwritten before the state can be read
+            historyStore.close();
+            UnicastRemoteObject.unexportObject(this, true);
+            throw new UncheckedIOException("Could not recover the state of the peer", e);
+        }
+
+        if (host.bind(address, this)) {
+            this.registry = null;
+        } else {
+            this.registry = LocateRegistry.createRegistry(port);
+            Naming.rebind(String.format("rmi://localhost:%d/DistributedChatPeer", port), this);
+        }
+        Logger.logInfo("Chat engine start on port %s", address);
+
+        this.paxosEngine = new PaxosEngine(failureDetector, metrics, tracer, host, host.paxosExecutor());
 
         syncUp();
+        this.heartbeats = heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_INTERVAL_MS,
+                HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        this.antiEntropyRounds = ANTI_ENTROPY_INTERVAL_MS <= 0 ? null : heartbeatExecutor.scheduleWithFixedDelay(
+                this::antiEntropy, ANTI_ENTROPY_INTERVAL_MS, ANTI_ENTROPY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        this.checkpoints = heartbeatExecutor.scheduleWithFixedDelay(this::checkpointIfDue, CHECKPOINT_CHECK_MS,
+                CHECKPOINT_CHECK_MS, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Metadata of a group as stored in a checkpoint. The messages themselves
+     * live in the history store. The modes of the groups are written after the checkpoints,
+     * so that checkpoints from before groups had a mode still load.
+     */
+    private static class GroupCheckpoint implements Serializable {
+        private static final long serialVersionUID = -7129971441962247225L;
+
+        final String name;
+        final Set<InetSocketAddress> peerAddresses;
+        final int historySize;
+
+        /**
+         * The latest membership change of every peer of a CRDT group, null in checkpoints
+         * written before membership changes were stamped.
+         */
+        final List<MemberChange> memberChanges;
+
+        private GroupCheckpoint(Group group) {
+            this.name = group.name;
+            this.peerAddresses = new HashSet<>(group.peerAddresses);
+            this.historySize = group.history.size();
+            this.memberChanges = group.memberChanges();
+        }
+    }
+
+    /**
+     * Rebuilds the groups from the last checkpoint and replays the operations
+     * logged after it, then takes a fresh checkpoint to compact the log.
+     *
+     * @throws IOException if there is a checkpoint but it cannot be read, or the log holds
+     *                     a damaged record, in which case the checkpoint and the log are left as they are
+     */
+    private void recover() throws IOException {
+        long firstSegment = 0;
+        Collection<?> checkpoints = Collections.emptyList();
+        Map<?, ?> modes = Collections.emptyMap();
+        Path path = FileSystems.getDefault().getPath(dataFileName("groups.dat"));
+        try (ObjectInputStream stream = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            checkpoints = ((Map<?, ?>) stream.readObject()).values();
+            try {
+                firstSegment = stream.readLong();
+                messageSequence.set(stream.readLong());
+                modes = (Map<?, ?>) stream.readObject();
+            } catch (EOFException e) {
+                // Checkpoint written before the write-ahead log, message IDs or group modes existed
+            }
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            // No previous state
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            Logger.logError("Could not read checkpoint %s: %s", path, e);
+            throw new IOException("Could not read checkpoint " + path, e);
+        }
+
+        for (Object state : checkpoints) {
+            if (state instanceof Group) {
+                // Checkpoint written before the history store existed
+                adopt((Group) state);
+                continue;
+            }
+            if (!(state instanceof GroupCheckpoint)) {
+                String type = state == null ? "null" : state.getClass().getName();
+                Logger.logError("Checkpoint %s holds an unknown group entry: %s", path, type);
+                throw new IOException("Unknown group entry in checkpoint " + path + ": " + type);
+            }
+
+            // Messages appended after the checkpoint are replayed from the log
+            GroupCheckpoint checkpoint = (GroupCheckpoint) state;
+            MappedHistory history = historyStore.open(checkpoint.name);
+            history.truncate(checkpoint.historySize);
+            GroupMode mode = modes.containsKey(checkpoint.name) ? (GroupMode) modes.get(checkpoint.name) : GroupMode.CONSENSUS;
+            Group group = new Group(checkpoint.name, mode, checkpoint.peerAddresses, history);
+            if (checkpoint.memberChanges != null) {
+                checkpoint.memberChanges.forEach(group::recordMemberChange);
+            }
+            groups.put(checkpoint.name, group);
+        }
+
+        List<Object> records = wal.replay(firstSegment);
+        for (Object record : records) {
+            Operation<?> operation = (Operation<?>) record;
+            if (operation.type == SEND_MSG) {
+                MessageId id = ((Message) operation.payload).getId();
+                if (id != null && id.getOrigin().equals(messageOrigin)) {
+                    messageSequence.accumulateAndGet(id.getSequence() + 1, Math::max);
+                }
+            }
+            apply(operation);
+        }
+        Logger.logInfo("Recovered %d operations from the write-ahead log", records.size());
+
+        checkpoint();
+    }
+
+    /**
+     * Takes a checkpoint in the background once the log has grown past its size limit,
+     * or once the checkpoint interval has passed with records in the log.
+     */
+    private void checkpointIfDue() {
+        long logged = wal.bytesSinceRollOver();
+        boolean due = logged >= CHECKPOINT_WAL_BYTES || (logged > 0 && CHECKPOINT_INTERVAL_MS > 0
+                && System.nanoTime() - lastCheckpoint >= TimeUnit.MILLISECONDS.toNanos(CHECKPOINT_INTERVAL_MS));
+        if (!running || !due || !checkpointPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            syncExecutor.execute(() -> {
+                try {
+                    synchronized (checkpointWriter) {
+                        // Shutdown takes the last checkpoint and closes the log
+                        if (running) {
+                            checkpoint();
+                        }
+                    }
+                } finally {
+                    checkpointPending.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            checkpointPending.set(false);
+        }
+    }
+
+    /**
+     * Atomically writes all groups to disk along with the write-ahead log position
+     * they reflect, and drops the log segments that are no longer needed.
+     * Operations wait while the groups are captured, but not while they are written.
+     */
+    private void checkpoint() {
+        synchronized (checkpointWriter) {
+            try {
+                // Saved first, so that an index never covers messages the checkpoint does not
+                searchIndexes.save();
+
+                long segment;
+                long sequence;
+                Map<String, GroupCheckpoint> checkpoints = new HashMap<>();
+                Map<String, GroupMode> modes = new HashMap<>();
+                checkpointLock.writeLock().lock();
+                try {
+                    segment = wal.rollOver();
+                    sequence = messageSequence.get();
+                    for (Group group : groups.values()) {
+                        checkpoints.put(group.name, new GroupCheckpoint(group));
+                        modes.put(group.name, group.mode);
+                    }
+                } finally {
+                    checkpointLock.writeLock().unlock();
+                }
+                historyStore.force();
+
+                Path path = FileSystems.getDefault().getPath(dataFileName("groups.dat"));
+                Path temp = path.resolveSibling("groups.dat.tmp");
+                try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+                    ObjectOutputStream stream = new ObjectOutputStream(file);
+                    stream.writeObject(checkpoints);
+                    stream.writeLong(segment);
+                    stream.writeLong(sequence);
+                    stream.writeObject(modes);
+                    stream.flush();
+                    file.getFD().sync();
+                }
+                Files.move(temp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+
+                wal.deleteSegmentsBefore(segment);
+                lastCheckpoint = System.nanoTime();
+            } catch (IOException e) {
+                Logger.logError("Could not write checkpoint: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Replaces the local copy of a group with the given one, moving its
+     * messages into the history store.
+     *
+     * @param other the group to take over
+     * @return the group as stored by this peer
+     */
+    private Group adopt(Group other) throws IOException {
+        MappedHistory history = historyStore.open(other.name);
+        history.truncate(0);
+        for (Message message : other.history.snapshot()) {
+            history.append(message);
+        }
+
+        Group group = new Group(other.name, other.mode, other.peerAddresses, history);
+        groups.put(group.name, group);
+        searchIndexes.invalidate(group.name);
+        return group;
+    }
+
+    /**
+     * Returns the path of a file in this peer's data directory.
+     */
+    private String dataFileName(String name) {
+        return String.format("app_data/%s-%d/%s", displayName, address.getPort(), name);
+    }
+
+    /**
+     * Maximum number of groups that are resynced at the same time on startup.
+     */
+    private static final int SYNC_CONCURRENCY = 8;
+
+    /**
+     * How long to wait for a single peer to let us rejoin a group before moving on to the next.
+     */
+    private static final long SYNC_PEER_TIMEOUT_MS = 5000;
+
+    /**
+     * Maximum number of messages sent at once to a peer catching up on a group.
+     */
+    private static final int SYNC_BATCH_SIZE = Integer.getInteger("chat.sync.batchSize", 512);
+
+    /**
+     * Number of messages before the high-water mark of a rejoining peer that are sent
+     * to it again. Peers add concurrent messages in the order they learn them, so the
+     * last messages the peer got before it left may sit in a different order here.
+     */
+    private static final int SYNC_OVERLAP = Integer.getInteger("chat.sync.overlap", 64);
+
+    /**
+     * Runs the startup resync of groups in the background.
+     */
+    private final ExecutorService syncExecutor;
+
+    /**
+     * Locks of the groups being joined, held while a join applies what it received, so
+     * that a join the resync gave up on cannot interleave with the next attempt.
+     */
+    private final Map<String, Object> syncLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Rejoins all known groups in the background, a bounded number of groups at a time.
+     */
     private void syncUp() {
         // Creating a copy since the original might get updated
         // as a part of sync up causing concurrent updates.
-        Map<String, Group> copy = new HashMap<>(groups);
+        List<Group> copy = new ArrayList<>(groups.values());
+        Semaphore permits = new Semaphore(SYNC_CONCURRENCY);
+
+        for (Group group : copy) {
+            syncExecutor.submit(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    syncGroup(group);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Rejoins a group through the first of its peers that answers in time, fetching
+     * only the messages added while this peer was away. A single successful join is
+     * enough since the Paxos round behind it announces this peer to the rest of the group.
+     */
+    private void syncGroup(Group group) {
+        for (InetSocketAddress peerAddress : new ArrayList<>(group.peerAddresses)) {
+            if (!running) {
+                return;
+            }
+            AtomicBoolean abandoned = new AtomicBoolean();
+            Future<Optional<Group>> attempt = syncExecutor.submit(
+                    () -> join(peerAddress.getHostString(), peerAddress.getPort(), group.name, abandoned));
+
+            try {
+                if (attempt.get(SYNC_PEER_TIMEOUT_MS, TimeUnit.MILLISECONDS).isPresent()) {
+                    Logger.logInfo("Resynced group %s through %s", group.name, peerAddress);
+                    return;
+                }
+            } catch (TimeoutException e) {
+                // RMI calls cannot be interrupted, so the attempt may still get an answer later
+                abandoned.set(true);
+                attempt.cancel(true);
+                Logger.logError("Resync of group %s timed out on %s", group.name, peerAddress);
+            } catch (ExecutionException e) {
+                Logger.logError("Resync of group %s failed on %s", group.name, peerAddress);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        Logger.logInfo("Could not resync group %s, no peer available", group.name);
+    }
+
+    /**
+     * Interval between heartbeats sent to every known peer.
+     */
+    private static final long HEARTBEAT_INTERVAL_MS = 1000;
+
+    /**
+     * How long a peer has to stay silent before it is logged off from its groups.
+     * Much longer than it takes to suspect it, so that a slow peer is skipped for
+     * a while before it is dropped.
+     */
+    private static final long PEER_REMOVAL_TIMEOUT_MS = 30_000;
+
+    /**
+     * Tracks the liveness of the peers in all groups.
+     */
+    private final FailureDetector failureDetector = new FailureDetector(HEARTBEAT_INTERVAL_MS);
+
+    /**
+     * Peers with a heartbeat in flight, so that a hanging peer does not pile up calls.
+     */
+    private final Set<InetSocketAddress> pendingHeartbeats = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Dead peers being logged off, so that a slow removal is not started again.
+     */
+    private final Set<InetSocketAddress> pendingRemovals = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Sends heartbeats and logs off dead peers.
+     */
+    private final ScheduledExecutorService heartbeatExecutor;
+
+    /**
+     * The scheduled heartbeats of this peer, cancelled on shutdown.
+     */
+    private final ScheduledFuture<?> heartbeats;
+
+    /**
+     * Pings every peer of every group, then removes the peers that have been
+     * silent for too long through a LOG_OFF round in each of their groups. The
+     * heartbeat thread is shared by every peer of the host, so the pings and the
+     * removals run on the sync threads and this never waits on the network.
+     */
+    private void heartbeat() {
+        Set<InetSocketAddress> peers = new HashSet<>();
+        for (Group group : groups.values()) {
+            peers.addAll(group.peerAddresses);
+        }
+
+        for (InetSocketAddress peer : peers) {
+            failureDetector.watch(peer);
+            if (pendingHeartbeats.add(peer)) {
+                syncExecutor.submit(() -> {
+                    try {
+                        ((ChatPeer) host.peer(peer)).getAddress();
+                        failureDetector.heartbeat(peer);
+                    } catch (NotBoundException | RemoteException e) {
+                        // Missing heartbeats are what the failure detector looks for
+                        host.forget(peer);
+                    } finally {
+                        pendingHeartbeats.remove(peer);
+                    }
+                });
+            }
+        }
+
+        for (InetSocketAddress peer : peers) {
+            if (failureDetector.isSuspected(peer) && failureDetector.silentForMillis(peer) > PEER_REMOVAL_TIMEOUT_MS
+                    && pendingRemovals.add(peer)) {
+                syncExecutor.submit(() -> {
+                    try {
+                        removePeer(peer);
+                    } finally {
+                        pendingRemovals.remove(peer);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Logs off a dead peer from every group it is in, on its behalf.
+     */
+    private void removePeer(InetSocketAddress peer) {
+        for (Group group : groups.values()) {
+            if (!running) {
+                return;
+            }
+            if (!group.peerAddresses.contains(peer)) {
+                continue;
+            }
 
-        for (Group group : copy.values()) {
-            for (InetSocketAddress peerAddress : group.peerAddresses) {
-                joinGroup(peerAddress.getHostString(), peerAddress.getPort(), group.name);
+            if (group.mode == GroupMode.CRDT) {
+                Operation<MemberChange> logOff = new Operation<>(LOG_OFF, group.name,
+                        new MemberChange(peer, false, nextMessageId()));
+                commitAndReplicate(logOff, logOff, group);
+                Logger.logInfo("Removed dead peer %s from group %s", peer, group.name);
+                continue;
+            }
+            Operation<InetSocketAddress> operation = new Operation<>(LOG_OFF, group.name, peer);
+            try {
+                if (paxosEngine.run(newProposal(operation), group).success) {
+                    // We do not take part in our own round, so apply the removal here as well
+                    commit(operation);
+                    Logger.logInfo("Removed dead peer %s from group %s", peer, group.name);
+                }
+            } catch (NotBoundException | RemoteException e) {
+                Logger.logError("Could not remove dead peer %s from group %s", peer, group.name);
             }
         }
+
+        boolean stillKnown = groups.values().stream().anyMatch(group -> group.peerAddresses.contains(peer));
+        if (!stillKnown) {
+            failureDetector.forget(peer);
+        }
+    }
+
+    /**
+     * Interval between anti-entropy rounds, or 0 to turn them off.
+     */
+    private static final long ANTI_ENTROPY_INTERVAL_MS = Long.getLong("chat.antiEntropy.intervalMillis", 10_000);
+
+    /**
+     * Maximum number of leaves whose messages are fetched in one call.
+     */
+    private static final int ANTI_ENTROPY_LEAF_BATCH = 32;
+
+    /**
+     * The scheduled anti-entropy rounds of this peer, cancelled on shutdown, or null if they are turned off.
+     */
+    private final ScheduledFuture<?> antiEntropyRounds;
+
+    /**
+     * Groups with an anti-entropy round in progress, so that a slow peer does not pile up rounds.
+     */
+    private final Set<String> reconciling = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Compares every group with one live peer of it picked at random, to catch the
+     * messages this peer missed because a LEARN timed out or failed. Every peer pulls
+     * what it is missing, so pairs of peers converge over the rounds of both. The
+     * members of CRDT groups are merged the same way.
+     */
+    private void antiEntropy() {
+        for (Group group : groups.values()) {
+            List<InetSocketAddress> partners = livePeers(group);
+            if (partners.isEmpty() || !reconciling.add(group.name)) {
+                continue;
+            }
+
+            InetSocketAddress partner = partners.get(ThreadLocalRandom.current().nextInt(partners.size()));
+            syncExecutor.submit(() -> {
+                try {
+                    reconcile(group.name, partner);
+                } finally {
+                    reconciling.remove(group.name);
+                }
+            });
+        }
+    }
+
+    /**
+     * Walks the Merkle trees of a group on this peer and on another one down from the root,
+     * following only the nodes that differ, then fetches the messages of the differing
+     * leaves and adds the ones this peer does not have. Two peers with the same messages
+     * only compare their roots.
+     *
+     * @param groupName the group
+     * @param partner   the peer to compare with
+     * @return the number of messages added
+     */
+    private int reconcile(String groupName, InetSocketAddress partner) {
+        Group group = groups.get(groupName);
+        if (group == null || !running) {
+            return 0;
+        }
+
+        HistoryDigest digest = group.digest();
+        int added = 0;
+        try {
+            ChatPeer peer = (ChatPeer) host.peer(partner);
+            if (group.mode == GroupMode.CRDT) {
+                mergeMembers(group, peer.memberChanges(groupName));
+            }
+
+            List<Integer> leaves = new ArrayList<>();
+            int[] nodes = {HistoryDigest.ROOT};
+            while (nodes.length > 0) {
+                long[] remote = peer.historyDigest(groupName, nodes);
+                if (remote == null) {
+                    return 0;
+                }
+                long[] local = digest.hashes(nodes);
+
+                List<Integer> differing = new ArrayList<>();
+                for (int i = 0; i < nodes.length; i++) {
+                    if (remote[i] == local[i]) {
+                        continue;
+                    }
+                    if (HistoryDigest.isLeaf(nodes[i])) {
+                        leaves.add(nodes[i]);
+                    } else {
+                        differing.add(2 * nodes[i]);
+                        differing.add(2 * nodes[i] + 1);
+                    }
+                }
+                nodes = differing.stream().mapToInt(Integer::intValue).toArray();
+            }
+
+            for (int from = 0; from < leaves.size(); from += ANTI_ENTROPY_LEAF_BATCH) {
+                int[] batch = leaves.subList(from, Math.min(leaves.size(), from + ANTI_ENTROPY_LEAF_BATCH))
+                        .stream().mapToInt(Integer::intValue).toArray();
+                HistoryPage missing = missingMessages(group, batch, peer.fetchLeaves(groupName, batch));
+                if (missing.messages.isEmpty()) {
+                    continue;
+                }
+                if (!commit(new Operation<>(SYNC_HISTORY, groupName, missing)).success) {
+                    break;
+                }
+                added += missing.messages.size();
+            }
+        } catch (NotBoundException | RemoteException e) {
+            host.forget(partner);
+            return added;
+        }
+
+        if (added > 0) {
+            metrics.group(groupName).antiEntropyRepairs.add(added);
+            Logger.logInfo("Anti-entropy added %d missing messages to group %s from %s", added, groupName, partner);
+        }
+        return added;
+    }
+
+    /**
+     * Commits the membership changes of a CRDT group, received from another peer, that
+     * are newer than the ones this peer knows, then makes sure this peer is still a member.
+     *
+     * @param changes the latest change of every member on the other peer, or null
+     */
+    private void mergeMembers(Group group, List<MemberChange> changes) {
+        if (changes == null) {
+            return;
+        }
+        for (MemberChange change : changes) {
+            boolean newer = group.memberChange(change.peer).map(change::isNewerThan).orElse(true);
+            if (newer && !commit(new Operation<>(change.present ? JOIN_GROUP : LOG_OFF, group.name, change)).success) {
+                return;
+            }
+        }
+        stayInGroup(group);
+    }
+
+    /**
+     * Joins a CRDT group again, under a newer stamp, if this peer does not know itself
+     * to be a member. Another peer may have taken this one for dead, or a departure from
+     * before a restart may have arrived after the join that followed it.
+     */
+    private void stayInGroup(Group group) {
+        if (!running || group.mode != GroupMode.CRDT
+                || group.memberChange(address).map(change -> change.present).orElse(false)) {
+            return;
+        }
+        Operation<MemberChange> join = new Operation<>(JOIN_GROUP, group.name,
+                new MemberChange(address, true, nextMessageId()));
+        if (commitAndReplicate(join, join, group)) {
+            Logger.logInfo("Joined group %s again under a newer stamp", group.name);
+        }
+    }
+
+    /**
+     * Returns the other peers of a group that are not suspected to be down.
+     */
+    private List<InetSocketAddress> livePeers(Group group) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (InetSocketAddress peer : group.peerAddresses) {
+            if (!peer.equals(address) && !failureDetector.isSuspected(peer)) {
+                peers.add(peer);
+            }
+        }
+        return peers;
+    }
+
+    /**
+     * Keeps the messages of a page fetched from the leaves of another peer that this peer does not have.
+     */
+    private static HistoryPage missingMessages(Group group, int[] leaves, HistoryPage page) {
+        Set<MessageId> known = new HashSet<>();
+        HistoryDigest digest = group.digest();
+        for (int leaf : leaves) {
+            for (int position : digest.positions(leaf)) {
+                known.add(group.history.get(position).getId());
+            }
+        }
+
+        List<Message> messages = new ArrayList<>();
+        List<Long> sequences = new ArrayList<>();
+        for (int i = 0; i < page.messages.size(); i++) {
+            MessageId id = page.messages.get(i).getId();
+            if (id != null && known.add(id)) {
+                messages.add(page.messages.get(i));
+                sequences.add(page.sequences.get(i));
+            }
+        }
+        return new HistoryPage(messages, sequences, -1, page.historySize);
     }
 
     @Override
     public Optional<Group> joinGroup(String ip, int port, String groupName) {
-        String url = String.format("rmi://%s:%d/DistributedChatPeer", ip, port);
+        return join(ip, port, groupName, new AtomicBoolean());
+    }
+
+    /**
+     * Joins a group through the given peer. Once the join is abandoned, nothing more
+     * it receives is applied.
+     *
+     * @param abandoned set when the caller no longer waits for the join
+     */
+    private Optional<Group> join(String ip, int port, String groupName, AtomicBoolean abandoned) {
+        InetSocketAddress sponsor = new InetSocketAddress(ip, port);
         try {
-            ChatPeer peer = (ChatPeer) Naming.lookup(url);
-            Group group = peer.acceptJoin(groupName, this);
-            if (group == null) {
+            ChatPeer peer = (ChatPeer) host.peer(sponsor);
+
+            // A peer that was in the group before only asks for what it has missed
+            Group local = groups.get(groupName);
+            long highWaterMark = local == null ? 0 : local.history.size();
+            GroupSync sync = peer.acceptJoin(groupName, this, highWaterMark);
+            if (sync == null) {
+                return Optional.empty();
+            }
+
+            HistoryPage page = sync.page;
+            GroupSync first = new GroupSync(sync.name, sync.mode, sync.peerAddresses, sync.memberChanges,
+                    sync.fromSequence, withoutResent(page, highWaterMark));
+            if (!commitJoined(new Operation<>(SYNC_GROUP, groupName, first), abandoned)) {
                 return Optional.empty();
             }
 
-            groups.put(groupName, group);
-            return Optional.of(group);
-        } catch (NotBoundException | MalformedURLException | RemoteException e) {
+            // Stream the rest in batches, each logged on its own
+            long received = page.messages.size();
+            HistoryQuery missing = HistoryQuery.since(sync.fromSequence);
+            while (page.hasNext()) {
+                page = peer.fetchHistory(groupName, missing, page.nextCursor, SYNC_BATCH_SIZE);
+                if (!commitJoined(new Operation<>(SYNC_HISTORY, groupName, withoutResent(page, highWaterMark)), abandoned)) {
+                    return Optional.empty();
+                }
+                received += page.messages.size();
+            }
+
+            // The high-water mark is a position in this peer's history, and peers order
+            // concurrent messages differently, so messages the other peer holds below it
+            // may still be missing here. Comparing digests finds them, and costs a single
+            // call when the histories match.
+            int repaired = 0;
+            if (highWaterMark > 0 && !abandoned.get()) {
+                repaired = reconcile(groupName, peer.getAddress());
+            }
+            Logger.logInfo("Synced group %s: %d messages from sequence %d, had %d, %d more found by digest",
+                    groupName, received, sync.fromSequence, highWaterMark, repaired);
+
+            return Optional.of(groups.get(groupName));
+        } catch (NotBoundException | RemoteException e) {
+            host.forget(sponsor);
             return Optional.empty();
         }
     }
 
+    /**
+     * Commits what a join received, unless the join was abandoned.
+     *
+     * @return whether the operation was committed
+     */
+    private boolean commitJoined(Operation<?> operation, AtomicBoolean abandoned) {
+        synchronized (syncLocks.computeIfAbsent(operation.groupName, name -> new Object())) {
+            if (abandoned.get()) {
+                Logger.logInfo("Dropped %s of group %s from an abandoned join", operation.type, operation.groupName);
+                return false;
+            }
+            return commit(operation).success;
+        }
+    }
+
     @Override
     public void shutdown() {
+        running = false;
+        heartbeats.cancel(false);
+        if (antiEntropyRounds != null) {
+            antiEntropyRounds.cancel(false);
+        }
+        checkpoints.cancel(false);
+
         // Send a log off message to connected peers
         for (Group group : groups.values()) {
-            PaxosProposal proposal = new PaxosProposal(new Operation<>(LOG_OFF, group.name, this));
+            if (group.mode == GroupMode.CRDT) {
+                Operation<MemberChange> logOff = new Operation<>(LOG_OFF, group.name,
+                        new MemberChange(address, false, nextMessageId()));
+                // Told directly, since the replicator may not get to it before the host stops
+                for (InetSocketAddress peer : livePeers(group)) {
+                    try {
+                        deliver(peer, List.of(logOff));
+                    } catch (NotBoundException | RemoteException e) {
+                        // Ignore, they're probably offline
+                    }
+                }
+                continue;
+            }
+            PaxosProposal proposal = new PaxosProposal(new Operation<>(LOG_OFF, group.name, address));
 
             try {
                 paxosEngine.run(proposal, group);
@@ -112,64 +967,246 @@ public class ChatEngine extends UnicastRemoteObject implements ChatPeer, ChatBac
             }
         }
 
-        // Save groups to disk for next time
-        String fileName = String.format("app_data/%s-%d/groups.dat", displayName, address.getPort());
-        try (FileOutputStream file = new FileOutputStream(fileName)) {
-            ObjectOutputStream stream = new ObjectOutputStream(file);
-            stream.writeObject(groups);
-        } catch (IOException e) {
-            e.printStackTrace();
+        // Checkpoint groups so that the next start does not need to replay the log
+        checkpoint();
+        try {
+            wal.close();
+            acceptorStore.close();
+        } catch (IOException e) {
+            Logger.logError("Could not close the write-ahead log: " + e.getMessage());
+        }
+        historyStore.close();
+        metrics.close();
+        tracer.close();
+
+        try {
+            if (registry == null) {
+                host.unbind(address);
+            } else {
+                Naming.unbind(String.format("rmi://localhost:%d/DistributedChatPeer", address.getPort()));
+                UnicastRemoteObject.unexportObject(registry, true);
+            }
+            UnicastRemoteObject.unexportObject(this, true);
+            Logger.logInfo("Chat engine shut down on port %s", address);
+        } catch (RemoteException | NotBoundException | MalformedURLException e) {
+            // Not exiting here, since this may run in a shutdown hook where exiting would hang
+            Logger.logError("Could not unbind chat engine on port %s: %s", address, e.getMessage());
+        }
+        if (ownsHost) {
+            host.shutdown();
+        }
+    }
+
+    @Override
+    public SendResult sendMessage(String contents, Group group) {
+        long start = System.nanoTime();
+        if (group.mode == GroupMode.CRDT) {
+            Operation<Message> operation = new Operation<>(SEND_MSG, group.name,
+                    new Message(nextMessageId(), displayName, contents, System.currentTimeMillis()));
+            return sendLocally(operation, operation, group, start);
+        }
+        if (!admit(group.name)) {
+            return SendResult.REJECTED;
+        }
+        try {
+            return propose(contents, group, start);
+        } finally {
+            admission.release(group.name);
+        }
+    }
+
+    private SendResult propose(String contents, Group group, long start) {
+        Message message = new Message(nextMessageId(), this.getDisplayName(), contents, System.currentTimeMillis());
+        Operation<Message> operation = new Operation<>(SEND_MSG, group.name, message);
+
+        PaxosProposal proposal = new PaxosProposal(operation);
+        try {
+            Result<?> result = paxosEngine.run(proposal, group);
+            if (!result.success) {
+                return SendResult.FAILED;
+            }
+        } catch (NotBoundException | RemoteException e) {
+            return SendResult.FAILED;
+        }
+
+        // We do not take part in our own round, so record what the group learned only now.
+        // If another proposal preempted ours, that is what was learned, and ours was not sent.
+        Tracer.setCurrent(proposal.traceId);
+        try {
+            commit(proposal.operation);
+        } finally {
+            Tracer.setCurrent(0);
+        }
+        if (!operation.equals(proposal.operation)) {
+            return SendResult.FAILED;
+        }
+        recordCommit(group.name, start);
+        return SendResult.SENT;
+    }
+
+    /**
+     * Private wrapper class used for file transfers.
+     */
+    private static class FileTransferHandle implements Serializable {
+        private static final long serialVersionUID = -9209838355901035189L;
+
+        final MessageId id;
+        final String from;
+        final String path;
+        final byte[] bytes;
+
+        private FileTransferHandle(MessageId id, String from, String path, byte[] bytes) {
+            this.id = id;
+            this.from = from;
+            this.path = path;
+            this.bytes = bytes;
+        }
+    }
+
+    @Override
+    public SendResult sendFile(File file, Group group) throws IOException {
+        long start = System.nanoTime();
+        if (group.mode == GroupMode.CRDT) {
+            byte[] fileBytes = Files.readAllBytes(file.getAbsoluteFile().toPath());
+            FileTransferHandle handle = new FileTransferHandle(nextMessageId(), displayName, file.getName(), fileBytes);
+            Message message = new Message(handle.id, displayName, "Sent file: " + file.getName(), System.currentTimeMillis());
+            return sendLocally(new Operation<>(SEND_MSG, group.name, message),
+                    new Operation<>(SEND_FILE, group.name, handle), group, start);
+        }
+        // Admitted before reading the file, so that a flood of files does not fill the heap
+        if (!admit(group.name)) {
+            return SendResult.REJECTED;
+        }
+        try {
+            return proposeFile(file, group, start);
+        } finally {
+            admission.release(group.name);
+        }
+    }
+
+    private SendResult proposeFile(File file, Group group, long start) throws IOException {
+        byte[] fileBytes = Files.readAllBytes(file.getAbsoluteFile().toPath());
+        FileTransferHandle handle = new FileTransferHandle(nextMessageId(), displayName, file.getName(), fileBytes);
+        PaxosProposal proposal = new PaxosProposal(new Operation<>(SEND_FILE, group.name, handle));
+
+        try {
+            Result<?> result = paxosEngine.run(proposal, group);
+            if (result.success) {
+                Message message = new Message(handle.id, displayName, "Sent file: " + file.getName(), System.currentTimeMillis());
+                commit(new Operation<>(SEND_MSG, group.name, message));
+                recordCommit(group.name, start);
+            }
+            return result.success ? SendResult.SENT : SendResult.FAILED;
+        } catch (NotBoundException | RemoteException e) {
+            return SendResult.FAILED;
+        }
+    }
+
+    /**
+     * Sends to a CRDT group: the message counts as sent once it is logged here, and
+     * reaches the other peers in the background. No proposal is made, so admission
+     * control does not apply.
+     *
+     * @param local      the operation to commit on this peer
+     * @param replicated the operation to send to the other peers
+     */
+    private SendResult sendLocally(Operation<?> local, Operation<?> replicated, Group group, long start) {
+        if (!commitAndReplicate(local, replicated, group)) {
+            return SendResult.FAILED;
+        }
+        recordCommit(group.name, start);
+        return SendResult.SENT;
+    }
+
+    /**
+     * Commits an operation of a CRDT group on this peer and queues it for the live peers of the group.
+     *
+     * @return whether the operation was committed here
+     */
+    private boolean commitAndReplicate(Operation<?> local, Operation<?> replicated, Group group) {
+        // Taken first, so that a joining peer is not sent its own join
+        List<InetSocketAddress> peers = livePeers(group);
+        if (!commit(local).success) {
+            return false;
         }
+        replicator.send(peers, replicated);
+        return true;
+    }
 
+    /**
+     * Delivers a batch of operations of CRDT groups to another peer.
+     */
+    private void deliver(InetSocketAddress peer, List<Operation<?>> operations) throws NotBoundException, RemoteException {
         try {
-            Naming.unbind(String.format("rmi://localhost:%d/DistributedChatPeer", address.getPort()));
-            Logger.logInfo(String.format("Chat engine shut down on port %s", address));
-        } catch (RemoteException | NotBoundException | MalformedURLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            ((ChatPeer) host.peer(peer)).replicate(operations);
+        } catch (NotBoundException | RemoteException e) {
+            host.forget(peer);
+            throw e;
         }
     }
 
     @Override
-    public boolean sendMessage(String contents, Group group) {
-        Message message = new Message(this.getDisplayName(), contents, System.currentTimeMillis());
-        PaxosProposal proposal = new PaxosProposal(new Operation<>(SEND_MSG, group.name, message));
+    public void replicate(List<Operation<?>> operations) {
+        Set<Group> membersChanged = new HashSet<>();
+        for (Operation<?> operation : operations) {
+            Group group = groups.get(operation.groupName);
+            if (group == null || group.mode != GroupMode.CRDT) {
+                continue;
+            }
+            if (!dispatch(operation).success) {
+                Logger.logError("Could not apply replicated %s to group %s", operation.type, operation.groupName);
+            } else if (operation.payload instanceof MemberChange) {
+                membersChanged.add(group);
+            }
+        }
+        membersChanged.forEach(this::stayInGroup);
+    }
 
+    /**
+     * Waits for the turn of a proposal to the given group, recording how long it waited.
+     *
+     * @return true if the proposal may run, false if it was rejected
+     */
+    private boolean admit(String groupName) {
+        long start = System.nanoTime();
+        GroupMetrics groupMetrics = metrics.group(groupName);
         try {
-            Result<?> result = paxosEngine.run(proposal, group);
-            return result.success;
-        } catch (NotBoundException | RemoteException e) {
-            return false;
+            if (admission.acquire(groupName)) {
+                groupMetrics.admissionWait.recordSince(start);
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        groupMetrics.admissionRejections.increment();
+        return false;
     }
 
     /**
-     * Private wrapper class used for file transfers.
+     * Records the end-to-end latency of a message or file sent by this peer.
      */
-    private static class FileTransferHandle implements Serializable {
-        final String from;
-        final String path;
-        final byte[] bytes;
+    private void recordCommit(String groupName, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        metrics.peer().commitLatency.record(nanos);
+        metrics.group(groupName).commitLatency.record(nanos);
+    }
 
-        private FileTransferHandle(String from, String path, byte[] bytes) {
-            this.from = from;
-            this.path = path;
-            this.bytes = bytes;
+    /**
+     * Moves the clock of this peer past a message or membership change of a CRDT group,
+     * so that the messages and changes this peer makes afterwards are ordered after it.
+     */
+    private void observe(Group group, MessageId id) {
+        if (group.mode == GroupMode.CRDT && id != null) {
+            messageSequence.accumulateAndGet(id.getSequence() + 1, Math::max);
         }
     }
 
-    @Override
-    public boolean sendFile(File file, Group group) throws IOException {
-        byte[] fileBytes = Files.readAllBytes(file.getAbsoluteFile().toPath());
-        FileTransferHandle handle = new FileTransferHandle(displayName, file.getName(), fileBytes);
-        PaxosProposal proposal = new PaxosProposal(new Operation<>(SEND_FILE, group.name, handle));
-
-        try {
-            Result<?> result = paxosEngine.run(proposal, group);
-            return result.success;
-        } catch (NotBoundException | RemoteException e) {
-            return false;
-        }
+    /**
+     * Returns a new ID for a message created by this peer. The sequence numbers double
+     * as the Lamport clock of the CRDT groups.
+     */
+    private MessageId nextMessageId() {
+        return new MessageId(messageOrigin, messageSequence.getAndIncrement());
     }
 
     @Override
@@ -178,36 +1215,80 @@ public class ChatEngine extends UnicastRemoteObject implements ChatPeer, ChatBac
     }
 
     @Override
-    public boolean createGroup(String name) {
+    public boolean createGroup(String name, GroupMode mode) {
         if (groups.containsKey(name)) {
             return false;
         }
 
-        groups.put(name, new Group(name));
+        if (!commit(new Operation<>(CREATE_GROUP, name, mode)).success) {
+            return false;
+        }
+        if (mode == GroupMode.CRDT) {
+            // Stamped like every other member, so that the peers joining later learn of it
+            return commit(new Operation<>(JOIN_GROUP, name, new MemberChange(address, true, nextMessageId()))).success;
+        }
         return true;
     }
 
     @Override
-    public Group acceptJoin(String name, ChatPeer peer) throws RemoteException {
+    public HistoryPage readHistory(Group group, HistoryQuery query, long cursor, int pageSize) {
+        Group local = groups.get(group.name);
+        if (local == null) {
+            return HistoryPage.EMPTY;
+        }
+        return local.readHistory(query, cursor, pageSize);
+    }
+
+    @Override
+    public void addGroupListener(GroupListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeGroupListener(GroupListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public SearchPage search(Group group, SearchQuery query, int cursor, int pageSize) {
+        Group local = groups.get(group.name);
+        if (local == null) {
+            return SearchPage.EMPTY;
+        }
+        return searchIndexes.search(local, query, cursor, pageSize);
+    }
+
+    @Override
+    public GroupSync acceptJoin(String name, ChatPeer peer, long highWaterMark) throws RemoteException {
         if (!groups.containsKey(name)) {
             return null;
         }
 
         Group group = groups.get(name);
-        PaxosProposal proposal = newProposal(new Operation<>(JOIN_GROUP, name, peer));
+        if (group.mode == GroupMode.CRDT) {
+            // The new peer learns of this one from its stamped membership
+            stayInGroup(group);
+            Operation<MemberChange> join = new Operation<>(JOIN_GROUP, name,
+                    new MemberChange(peer.getAddress(), true, nextMessageId()));
+            // The other peers hear of the new one in the background, like of any other change
+            Set<InetSocketAddress> peers = new HashSet<>(group.peerAddresses);
+            peers.add(this.address);
+            return commitAndReplicate(join, join, group) ? groupSync(group, peers, highWaterMark) : null;
+        }
+        Operation<InetSocketAddress> operation = new Operation<>(JOIN_GROUP, name, peer.getAddress());
+        PaxosProposal proposal = newProposal(operation);
 
         try {
             Result<?> result = paxosEngine.run(proposal, group);
             if (result.success) {
-                // Create a copy of own peers and send to caller
-                // Add self to the list
-                Group copy = new Group(group);
-                copy.peerAddresses.add(this.address);
+                // Copy own peers for the caller, adding self to the list
+                Set<InetSocketAddress> peers = new HashSet<>(group.peerAddresses);
+                peers.add(this.address);
 
                 // Now add this peer to your own list
-                group.peerAddresses.add(peer.getAddress());
+                commit(operation);
 
-                return copy;
+                return groupSync(group, peers, highWaterMark);
             }
         } catch (NotBoundException e) {
             // Just return an empty list
@@ -216,6 +1297,63 @@ public class ChatEngine extends UnicastRemoteObject implements ChatPeer, ChatBac
         return null;
     }
 
+    /**
+     * Answers a join with the peers of a group and the first batch of what the joining
+     * peer is missing, which fetches the rest itself.
+     */
+    private GroupSync groupSync(Group group, Set<InetSocketAddress> peers, long highWaterMark) {
+        long from = Math.max(0, Math.min(highWaterMark, group.history.size()) - SYNC_OVERLAP);
+        HistoryPage page = group.history.read(HistoryQuery.since(from), HistoryPage.FIRST_PAGE, SYNC_BATCH_SIZE);
+        List<MemberChange> memberChanges = group.mode == GroupMode.CRDT ? group.memberChanges() : null;
+        return new GroupSync(group.name, group.mode, peers, memberChanges, from, page);
+    }
+
+    @Override
+    public HistoryPage fetchHistory(String groupName, HistoryQuery query, long cursor, int pageSize) {
+        Group group = groups.get(groupName);
+        if (group == null) {
+            return HistoryPage.EMPTY;
+        }
+        return group.history.read(query, cursor, Math.min(pageSize, SYNC_BATCH_SIZE));
+    }
+
+    @Override
+    public List<MemberChange> memberChanges(String groupName) {
+        Group group = groups.get(groupName);
+        if (group == null) {
+            return null;
+        }
+        return group.memberChanges();
+    }
+
+    @Override
+    public long[] historyDigest(String groupName, int[] nodes) {
+        Group group = groups.get(groupName);
+        if (group == null) {
+            return null;
+        }
+        return group.digest().hashes(nodes);
+    }
+
+    @Override
+    public HistoryPage fetchLeaves(String groupName, int[] leaves) {
+        Group group = groups.get(groupName);
+        if (group == null) {
+            return HistoryPage.EMPTY;
+        }
+
+        HistoryDigest digest = group.digest();
+        List<Message> messages = new ArrayList<>();
+        List<Long> sequences = new ArrayList<>();
+        for (int leaf : leaves) {
+            for (int position : digest.positions(leaf)) {
+                messages.add(group.history.get(position));
+                sequences.add((long) position);
+            }
+        }
+        return new HistoryPage(messages, sequences, -1, group.history.size());
+    }
+
     @Override
     public InetSocketAddress getAddress() throws RemoteException {
         return address;
@@ -230,51 +1368,130 @@ public class ChatEngine extends UnicastRemoteObject implements ChatPeer, ChatBac
     private long paxosMaxID = System.currentTimeMillis();
     private PaxosProposal accepted;
 
+    /**
+     * Version of the acceptor state, increased on every change to it.
+     */
+    private long acceptorVersion;
+
+    /**
+     * Guards paxosMaxID, accepted and acceptorVersion.
+     */
+    private final Object acceptorLock = new Object();
+
+    /**
+     * Durable copy of the acceptor state, written before replying to proposers.
+     */
+    private final AcceptorStore acceptorStore;
+
     private final PaxosEngine paxosEngine;
 
     @Override
     public PaxosResponse prepare(PaxosProposal paxosProposal) throws RemoteException {
-        Logger.logInfo("Paxos Prepare: Received proposal");
+        return traced("prepare", paxosProposal, this::handlePrepare);
+    }
 
-        if (paxosProposal.id > this.paxosMaxID) {
-            // Update max Paxos ID
-            this.paxosMaxID = paxosProposal.id;
+    @Override
+    public PaxosResponse accept(PaxosProposal paxosProposal) throws RemoteException {
+        return traced("accept", paxosProposal, this::handleAccept);
+    }
+
+    @Override
+    public PaxosResponse learn(PaxosProposal paxosProposal) throws RemoteException {
+        PaxosResponse response = traced("learn", paxosProposal, this::handleLearn);
+        // The proposer decides by now whether the round is worth keeping
+        tracer.finish(paxosProposal.traceId, paxosProposal.sampled);
+        return response;
+    }
+
+    /**
+     * Runs a Paxos handler under the trace of the proposal, and records how long the
+     * proposal took to arrive and how long the handler took.
+     */
+    private PaxosResponse traced(String name, PaxosProposal paxosProposal, Function<PaxosProposal, PaxosResponse> handler) {
+        long startMicros = Tracer.nowMicros();
+        long start = System.nanoTime();
+        PaxosResponse response;
+        Tracer.setCurrent(paxosProposal.traceId);
+        try {
+            response = handler.apply(paxosProposal);
+        } finally {
+            Tracer.setCurrent(0);
+        }
 
-            if (this.accepted != null) {
-                Logger.logInfo("Paxos Prepare: Returning previously ACCEPTED proposal");
-                return PaxosResponse.ACCEPTED(this.accepted);
+        long queueMicros = paxosProposal.sentAtMicros == 0 ? 0 : startMicros - paxosProposal.sentAtMicros;
+        tracer.record(paxosProposal.traceId, name, null, startMicros, queueMicros, (System.nanoTime() - start) / 1000,
+                response.status.name());
+        return response;
+    }
+
+    private PaxosResponse handlePrepare(PaxosProposal paxosProposal) {
+        Logger.logDebug("Paxos Prepare: Received proposal");
+        metrics.peer().received(paxosProposal.operation.type, paxosProposal.serializedSize);
+
+        PaxosResponse response;
+        AcceptorStore.State state;
+        synchronized (acceptorLock) {
+            if (paxosProposal.id > this.paxosMaxID) {
+                // Update max Paxos ID
+                this.paxosMaxID = paxosProposal.id;
+                state = acceptorState();
+
+                if (this.accepted != null) {
+                    Logger.logInfo("Paxos Prepare: Returning previously ACCEPTED proposal");
+                    response = PaxosResponse.ACCEPTED(this.accepted);
+                } else {
+                    Logger.logDebug("Paxos Prepare: Returning PROMISED for proposal");
+                    response = PaxosResponse.PROMISED(paxosProposal);
+                }
             } else {
-                Logger.logInfo("Paxos Prepare: Returning PROMISED for proposal");
-                return PaxosResponse.PROMISED(paxosProposal);
+                Logger.logError("Paxos Prepare: Returning REJECTED for proposal");
+                return PaxosResponse.REJECTED(paxosProposal);
             }
-        } else {
-            Logger.logError("Paxos Prepare: Returning REJECTED for proposal");
+        }
+
+        // The promise only counts once it survives a restart
+        if (!persistAcceptorState(state)) {
             return PaxosResponse.REJECTED(paxosProposal);
         }
+        return response;
     }
 
-    @Override
-    public PaxosResponse accept(PaxosProposal paxosProposal) throws RemoteException {
-        Logger.logInfo("Paxos Accept: Received proposal for acceptance");
+    private PaxosResponse handleAccept(PaxosProposal paxosProposal) {
+        Logger.logDebug("Paxos Accept: Received proposal for acceptance");
+        metrics.peer().received(paxosProposal.operation.type, paxosProposal.serializedSize);
 
-        if (paxosProposal.id == this.paxosMaxID) {
-            this.accepted = paxosProposal;
-            Logger.logInfo("Paxos Accept: Accepting proposal");
-            return PaxosResponse.ACCEPTED(paxosProposal);
-        } else {
-            Logger.logInfo("Paxos Accept: Rejecting proposal");
+        AcceptorStore.State state;
+        synchronized (acceptorLock) {
+            if (paxosProposal.id == this.paxosMaxID) {
+                this.accepted = paxosProposal;
+                state = acceptorState();
+            } else {
+                Logger.logInfo("Paxos Accept: Rejecting proposal");
+                return PaxosResponse.REJECTED(paxosProposal);
+            }
+        }
+
+        if (!persistAcceptorState(state)) {
             return PaxosResponse.REJECTED(paxosProposal);
         }
+        Logger.logDebug("Paxos Accept: Accepting proposal");
+        return PaxosResponse.ACCEPTED(paxosProposal);
     }
 
-    @Override
-    public PaxosResponse learn(PaxosProposal paxosProposal) throws RemoteException {
-        Logger.logInfo("Paxos Learn: Received proposal for learning");
+    private PaxosResponse handleLearn(PaxosProposal paxosProposal) {
+        Logger.logDebug("Paxos Learn: Received proposal for learning");
+        metrics.peer().received(paxosProposal.operation.type, paxosProposal.serializedSize);
 
         Result<?> result = this.dispatch(paxosProposal.operation);
         if (result.success) {
-            this.accepted = null;
-            Logger.logInfo("Paxos Learn: Learned proposal successfully");
+            AcceptorStore.State state;
+            synchronized (acceptorLock) {
+                this.accepted = null;
+                state = acceptorState();
+            }
+            persistAcceptorState(state);
+
+            Logger.logDebug("Paxos Learn: Learned proposal successfully");
             return PaxosResponse.OK(paxosProposal, result);
         } else {
             Logger.logInfo("Paxos Learn: Failed while learning proposal");
@@ -282,60 +1499,317 @@ public class ChatEngine extends UnicastRemoteObject implements ChatPeer, ChatBac
         }
     }
 
+    /**
+     * Restores the acceptor state saved before the last shutdown or crash.
+     */
+    private void recoverAcceptorState() throws IOException {
+        AcceptorStore.State state = acceptorStore.load();
+        if (state != null) {
+            this.acceptorVersion = state.version;
+            this.paxosMaxID = Math.max(this.paxosMaxID, state.promisedID);
+            this.accepted = state.accepted;
+        }
+    }
+
+    /**
+     * Captures the current acceptor state under a new version.
+     * Must be called while holding the acceptor lock.
+     */
+    private AcceptorStore.State acceptorState() {
+        return new AcceptorStore.State(++acceptorVersion, paxosMaxID, accepted);
+    }
+
+    /**
+     * Saves the acceptor state, sharing the fsync with concurrent requests.
+     *
+     * @return whether the state is now on disk
+     */
+    private boolean persistAcceptorState(AcceptorStore.State state) {
+        try {
+            acceptorStore.save(state);
+            return true;
+        } catch (IOException e) {
+            Logger.logError("Paxos: Could not persist acceptor state: " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * Helper method that actually runs operations on a peer.
      */
-    private Result<?> dispatch(Operation<?> operation) throws RemoteException {
+    private Result<?> dispatch(Operation<?> operation) {
+        if (operation.type != SEND_FILE) {
+            return commit(operation);
+        }
+
+        FileTransferHandle handle = (FileTransferHandle) operation.payload;
+
+        String fileName = String.format("app_data/%s-%d/received_files/%s", displayName, address.getPort(), handle.path);
+        Path destinationPath = FileSystems.getDefault().getPath(fileName);
+
+        try {
+            Files.createDirectories(destinationPath.getParent());
+            Files.write(destinationPath, handle.bytes);
+        } catch (IOException e) {
+            return Result.failure("File could not be saved");
+        }
+
+        // Only the resulting message is logged, the file itself is already on disk
+        Message message = new Message(handle.id, handle.from, "Sent file: " + handle.path, System.currentTimeMillis());
+        if (!commit(new Operation<>(SEND_MSG, operation.groupName, message)).success) {
+            return Result.failure("File could not be saved");
+        }
+        return Result.success("File saved successfully!");
+    }
+
+    /**
+     * Records an operation in the write-ahead log and then applies it, on the mailbox
+     * of its group. The operation is not applied if it could not be logged. The fsync
+     * happens outside the mailbox, so that it is shared with the following operations.
+     */
+    private Result<?> commit(Operation<?> operation) {
+        long start = System.nanoTime();
+        long traceId = Tracer.current();
+        CompletableFuture<Committed> committed;
+        try {
+            committed = CompletableFuture.supplyAsync(() -> {
+                long dequeued = System.nanoTime();
+                checkpointLock.readLock().lock();
+                try {
+                    long seq = wal.write(operation);
+                    return new Committed(seq, apply(operation), dequeued);
+                } catch (IOException e) {
+                    Logger.logError("Could not write operation to the write-ahead log: " + e.getMessage());
+                    return null;
+                } finally {
+                    checkpointLock.readLock().unlock();
+                }
+            }, mailbox(operation.groupName));
+        } catch (RejectedExecutionException e) {
+            return Result.failure("Peer is shutting down");
+        }
+
+        Committed result = committed.join();
+        if (result == null) {
+            return Result.failure("Operation could not be persisted");
+        }
+
+        try {
+            wal.sync(result.seq);
+        } catch (IOException e) {
+            Logger.logError("Could not sync the write-ahead log: " + e.getMessage());
+            return Result.failure("Operation could not be persisted");
+        }
+        metrics.group(operation.groupName).localCommitLatency.recordSince(start);
+        if (traceId != 0) {
+            long now = System.nanoTime();
+            tracer.record(traceId, "commit " + operation.type, null, Tracer.nowMicros() - (now - start) / 1000,
+                    (result.dequeued - start) / 1000, (now - result.dequeued) / 1000, result.result.success ? "OK" : "FAILED");
+        }
+        return result.result;
+    }
+
+    /**
+     * Returns the mailbox of the given group, creating it if needed.
+     */
+    private SerialExecutor mailbox(String groupName) {
+        return mailboxes.computeIfAbsent(groupName, name -> new SerialExecutor(groupExecutor));
+    }
+
+    /**
+     * Outcome of an operation applied on its mailbox.
+     */
+    private static class Committed {
+        final long seq;
+        final Result<?> result;
+
+        /**
+         * When the mailbox got to the operation, as returned by {@link System#nanoTime()}.
+         */
+        final long dequeued;
+
+        private Committed(long seq, Result<?> result, long dequeued) {
+            this.seq = seq;
+            this.result = result;
+            this.dequeued = dequeued;
+        }
+    }
+
+    /**
+     * Applies a logged operation to the groups. This only touches local state,
+     * so it is used both for live operations and for replaying the log.
+     */
+    private Result<?> apply(Operation<?> operation) {
+        Group group = groups.get(operation.groupName);
+        if (group == null && operation.type != CREATE_GROUP && operation.type != SYNC_GROUP) {
+            return Result.failure("Unknown group: " + operation.groupName);
+        }
+
         switch (operation.type) {
+            case CREATE_GROUP: {
+                if (group != null) {
+                    return Result.success("Group already exists");
+                }
+                // Logged without a mode before groups had one
+                GroupMode mode = operation.payload == null ? GroupMode.CONSENSUS : (GroupMode) operation.payload;
+                return adoptOrFail(new Group(operation.groupName, mode), "Created group");
+            }
+            case SYNC_GROUP: {
+                if (operation.payload instanceof Group) {
+                    // Logged by a version that copied the whole group on every join
+                    return adoptOrFail((Group) operation.payload, "Synced group");
+                }
+                return syncOrFail(group, (GroupSync) operation.payload);
+            }
+            case SYNC_HISTORY: {
+                appendMissing(group, (HistoryPage) operation.payload);
+                return Result.success("Synced group history");
+            }
             case JOIN_GROUP: {
-                ChatPeer peer = (ChatPeer) operation.payload;
-                Group group = groups.get(operation.groupName);
-                group.peerAddresses.add(peer.getAddress());
+                if (operation.payload instanceof MemberChange) {
+                    return changeMember(group, (MemberChange) operation.payload);
+                }
+                group.peerAddresses.add((InetSocketAddress) operation.payload);
                 return Result.success("Added new peer to group");
             }
             case SEND_MSG: {
-                Group group = groups.get(operation.groupName);
                 Message message = (Message) operation.payload;
-                group.addMessageToGroupHistory((Message) operation.payload);
+                observe(group, message.getId());
+                if (group.addMessageToGroupHistory(message)) {
+                    searchIndexes.update(group);
+                    long sequence = group.sequenceOf(group.history.size() - 1);
+                    notifyListeners(listener -> listener.messageAdded(group.name, sequence, message));
+                }
                 return Result.success(message);
             }
             case LOG_OFF: {
-                Group group = groups.get(operation.groupName);
-                ChatPeer peer = (ChatPeer) operation.payload;
+                if (operation.payload instanceof MemberChange) {
+                    return changeMember(group, (MemberChange) operation.payload);
+                }
+                group.peerAddresses.remove((InetSocketAddress) operation.payload);
+                return Result.success("Logged off successfully!");
+            }
+            default:
+                return Result.failure("Unknown operation: " + operation.type);
+        }
+    }
 
-                group.peerAddresses.removeIf(cp -> {
-                    try {
-                        return cp.getAddress().equals(peer.getAddress());
-                    } catch (RemoteException e) {
-                        Logger.logInfo("Could not log off peer.");
-                        return false;
-                    }
-                });
+    /**
+     * Applies a stamped membership change of a CRDT group, unless a newer change of the
+     * same peer is known, so that every peer ends up with the same members whatever
+     * order the changes arrive in.
+     */
+    private Result<?> changeMember(Group group, MemberChange change) {
+        observe(group, change.stamp);
+        if (!group.recordMemberChange(change)) {
+            return Result.success("Newer membership change already known");
+        }
 
-                return Result.success("Logged off successfully!");
+        // As in consensus groups, a peer does not list itself
+        if (!change.peer.equals(address)) {
+            if (change.present) {
+                group.peerAddresses.add(change.peer);
+            } else {
+                group.peerAddresses.remove(change.peer);
             }
-            case SEND_FILE: {
-                Group group = groups.get(operation.groupName);
-                FileTransferHandle handle = (FileTransferHandle) operation.payload;
+        }
+        return Result.success(change.present ? "Added new peer to group" : "Logged off successfully!");
+    }
 
-                String fileName = String.format("app_data/%s-%d/received_files/%s", displayName, address.getPort(), handle.path);
-                Path destinationPath = FileSystems.getDefault().getPath(fileName);
+    /**
+     * Adopts a group and wraps the outcome in a Result.
+     */
+    private Result<?> adoptOrFail(Group group, String successMessage) {
+        try {
+            adopt(group);
+            notifyListeners(listener -> listener.groupChanged(group.name));
+            return Result.success(successMessage);
+        } catch (IOException | UncheckedIOException e) {
+            Logger.logError("Could not store group history: " + e.getMessage());
+            return Result.failure("Group history could not be stored");
+        }
+    }
 
-                try {
-                    Files.createDirectories(destinationPath.getParent());
-                    Files.write(destinationPath, handle.bytes);
-                    group.addMessageToGroupHistory(
-                            new Message(handle.from,
-                                    "Sent file: " + handle.path,
-                                    System.currentTimeMillis())
-                    );
-                    return Result.success("File saved successfully!");
-                } catch (IOException e) {
-                    return Result.failure("File could not be saved");
+    /**
+     * Takes over the peers of a group from the peer that accepted the join, and the
+     * first batch of the messages this peer was missing. The group is created if this
+     * peer was not in it before.
+     */
+    private Result<?> syncOrFail(Group group, GroupSync sync) {
+        if (group == null) {
+            Result<?> created = adoptOrFail(new Group(sync.name, sync.mode), "Created group");
+            if (!created.success) {
+                return created;
+            }
+            group = groups.get(sync.name);
+        }
+
+        if (sync.memberChanges == null) {
+            group.peerAddresses.retainAll(sync.peerAddresses);
+            group.peerAddresses.addAll(sync.peerAddresses);
+        } else {
+            for (MemberChange change : sync.memberChanges) {
+                changeMember(group, change);
+            }
+
+            // Peers added before membership changes were stamped follow the accepting peer
+            Group synced = group;
+            group.peerAddresses.removeIf(peer -> !synced.memberChange(peer).isPresent() && !sync.peerAddresses.contains(peer));
+            for (InetSocketAddress peer : sync.peerAddresses) {
+                if (!peer.equals(address) && !group.memberChange(peer).isPresent()) {
+                    group.peerAddresses.add(peer);
                 }
             }
-            default:
-                return Result.failure("Unknown operation: " + operation.type);
+        }
+        appendMissing(group, sync.page);
+        return Result.success("Synced group");
+    }
+
+    /**
+     * Appends the messages of a batch sent by another peer that this peer does not have yet.
+     */
+    private void appendMissing(Group group, HistoryPage page) {
+        int added = 0;
+        for (Message message : page.messages) {
+            observe(group, message.getId());
+            if (group.addMessageToGroupHistory(message)) {
+                long sequence = group.sequenceOf(group.history.size() - 1);
+                notifyListeners(listener -> listener.messageAdded(group.name, sequence, message));
+                added++;
+            }
+        }
+        if (added > 0) {
+            searchIndexes.update(group);
+        }
+    }
+
+    /**
+     * Drops the messages without an ID from the part of a batch that comes before the
+     * high-water mark of this peer, since only messages with an ID can be recognized
+     * as ones this peer already has.
+     */
+    private static HistoryPage withoutResent(HistoryPage page, long highWaterMark) {
+        List<Message> messages = new ArrayList<>(page.messages.size());
+        List<Long> sequences = new ArrayList<>(page.sequences.size());
+        for (int i = 0; i < page.messages.size(); i++) {
+            if (page.messages.get(i).getId() != null || page.sequences.get(i) >= highWaterMark) {
+                messages.add(page.messages.get(i));
+                sequences.add(page.sequences.get(i));
+            }
+        }
+        return new HistoryPage(messages, sequences, page.nextCursor, page.historySize);
+    }
+
+    /**
+     * Calls every listener, keeping a failing listener from affecting the others.
+     */
+    private void notifyListeners(Consumer<GroupListener> call) {
+        for (GroupListener listener : listeners) {
+            try {
+                call.accept(listener);
+            } catch (RuntimeException e) {
+                Logger.logError("Group listener failed: " + e.getMessage());
+            }
         }
     }
 
@@ -348,7 +1822,14 @@ public class ChatEngine extends UnicastRemoteObject implements ChatPeer, ChatBac
      */
     private PaxosProposal newProposal(Operation<?> operation) {
         PaxosProposal paxosProposal = new PaxosProposal(operation);
-        this.paxosMaxID = paxosProposal.id;
+
+        AcceptorStore.State state;
+        synchronized (acceptorLock) {
+            this.paxosMaxID = paxosProposal.id;
+            state = acceptorState();
+        }
+        persistAcceptorState(state);
+
         return paxosProposal;
     }
 }
@@ -1,22 +1,80 @@
 package chat.backend;
 
+import chat.backend.history.HistoryDigest;
+import chat.backend.history.HistoryPage;
+import chat.backend.history.HistoryQuery;
+
 import java.net.InetSocketAddress;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * Represents a peer in the chat system.
  */
 public interface ChatPeer extends Remote {
 	/**
-	 * Accepts a new peer into a group.
+	 * Accepts a peer into a group, sending it only the messages it does not have yet.
+	 *
+	 * @param groupName     the name of the group.
+	 * @param peer          the peer to accept into the group.
+	 * @param highWaterMark the number of messages of the group the peer already has, 0 if it is new to the group.
+	 * @return the peers of the group and the first batch of missing messages, or null if the group doesn't exist.
+	 * @throws RemoteException if a remote communication error occurs.
+	 */
+	GroupSync acceptJoin(String groupName, ChatPeer peer, long highWaterMark) throws RemoteException;
+
+	/**
+	 * Reads one batch of the history of a group, for a peer catching up after a join.
+	 *
+	 * @param groupName the name of the group.
+	 * @param query     the window to read.
+	 * @param cursor    the cursor returned with the previous batch.
+	 * @param pageSize  the maximum number of messages to return.
+	 * @return the batch of messages, empty if the group doesn't exist.
+	 * @throws RemoteException if a remote communication error occurs.
+	 */
+	HistoryPage fetchHistory(String groupName, HistoryQuery query, long cursor, int pageSize) throws RemoteException;
+
+	/**
+	 * Returns the hashes of nodes of the Merkle tree over the messages of a group, for
+	 * a peer comparing its messages with this one's.
+	 *
+	 * @param groupName the name of the group.
+	 * @param nodes     the node numbers, as defined by {@link HistoryDigest}.
+	 * @return the hash of each node, or null if the group doesn't exist.
+	 * @throws RemoteException if a remote communication error occurs.
+	 */
+	long[] historyDigest(String groupName, int[] nodes) throws RemoteException;
+
+	/**
+	 * Returns the messages of a group that fall into leaves of its Merkle tree.
+	 *
+	 * @param groupName the name of the group.
+	 * @param leaves    the node numbers of the leaves.
+	 * @return the messages, empty if the group doesn't exist.
+	 * @throws RemoteException if a remote communication error occurs.
+	 */
+	HistoryPage fetchLeaves(String groupName, int[] leaves) throws RemoteException;
+
+	/**
+	 * Applies operations of {@link GroupMode#CRDT} groups that another peer has already applied.
+	 * Operations of groups this peer is not in, or that are not CRDT groups, are ignored.
+	 *
+	 * @param operations the operations, in the order the sending peer applied them.
+	 * @throws RemoteException if a remote communication error occurs.
+	 */
+	void replicate(List<Operation<?>> operations) throws RemoteException;
+
+	/**
+	 * Returns the latest change to the membership of every peer of a {@link GroupMode#CRDT}
+	 * group, for a peer merging them into its own during anti-entropy.
 	 *
 	 * @param groupName the name of the group.
-	 * @param peer      the peer to accept into the group.
-	 * @return the group with the new peer accepted, or null if the group doesn't exist.
+	 * @return the changes, or null if the group doesn't exist.
 	 * @throws RemoteException if a remote communication error occurs.
 	 */
-	Group acceptJoin(String groupName, ChatPeer peer) throws RemoteException;
+	List<MemberChange> memberChanges(String groupName) throws RemoteException;
 
 	/**
 	 * Returns the address of this participant.
@@ -1,31 +1,85 @@
 package chat.backend;
 
+import chat.backend.history.CausalLog;
+import chat.backend.history.ChunkedMessageLog;
+import chat.backend.history.HistoryDigest;
+import chat.backend.history.HistoryPage;
+import chat.backend.history.HistoryQuery;
+import chat.backend.history.MessageLog;
+import chat.backend.history.SeenSet;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a group chat in the application.
  */
 public class Group implements Serializable {
 
+    /**
+     * The implicit value of the first version, which kept its messages in a list,
+     * so that groups saved by it can still be read.
+     */
+    private static final long serialVersionUID = 1636582291593421905L;
+
     /**
      * The name of the group.
      */
     public final String name;
 
     /**
-     * The set of peer addresses in the group.
+     * How the history of the group is replicated.
+     */
+    public final GroupMode mode;
+
+    /**
+     * The set of peer addresses in the group, safe to read while it is being changed.
      */
     public final Set<InetSocketAddress> peerAddresses;
 
     /**
-     * The list of messages in the group's chat history.
+     * The append-only log of messages in the group's chat history, in the order this peer received them.
+     */
+    public final MessageLog history;
+
+    /**
+     * Latest change to the membership of each peer of a {@link GroupMode#CRDT} group,
+     * from which the peer addresses follow. Peers added before changes were stamped have none.
+     */
+    private final transient Map<InetSocketAddress, MemberChange> membership = new ConcurrentHashMap<>();
+
+    /**
+     * IDs of the most recent messages, created on first use.
      */
-    public final List<Message> history;
+    private transient SeenSet seen;
+
+    /**
+     * Merkle tree over the IDs of the messages, created on first use.
+     */
+    private transient HistoryDigest digest;
+
+    /**
+     * The history of a {@link GroupMode#CRDT} group in causal order, created on first use.
+     */
+    private transient CausalLog causal;
+
+    /**
+     * The group built from the fields read by {@link #readObject}, which replaces the
+     * deserialized instance since its final fields cannot be set.
+     */
+    private transient Group resolved;
 
     /**
      * Constructs a new Group object with the given name.
@@ -33,9 +87,47 @@ public class Group implements Serializable {
      * @param name the name of the group.
      */
     public Group(String name) {
+        this(name, GroupMode.CONSENSUS);
+    }
+
+    /**
+     * Constructs a new Group object with the given name, replicated in the given mode.
+     *
+     * @param name the name of the group.
+     * @param mode how the history of the group is replicated.
+     */
+    public Group(String name, GroupMode mode) {
+        this.name = name;
+        this.mode = mode;
+        this.peerAddresses = ConcurrentHashMap.newKeySet();
+        this.history = new ChunkedMessageLog();
+    }
+
+    /**
+     * Constructs a new Group object with the given name, peers and history.
+     *
+     * @param name          the name of the group.
+     * @param peerAddresses the peer addresses in the group.
+     * @param history       the log holding the group's chat history.
+     */
+    public Group(String name, Set<InetSocketAddress> peerAddresses, MessageLog history) {
+        this(name, GroupMode.CONSENSUS, peerAddresses, history);
+    }
+
+    /**
+     * Constructs a new Group object with the given name, mode, peers and history.
+     *
+     * @param name          the name of the group.
+     * @param mode          how the history of the group is replicated.
+     * @param peerAddresses the peer addresses in the group.
+     * @param history       the log holding the group's chat history.
+     */
+    public Group(String name, GroupMode mode, Set<InetSocketAddress> peerAddresses, MessageLog history) {
         this.name = name;
-        this.peerAddresses = new HashSet<>();
-        this.history = new ArrayList<>();
+        this.mode = mode;
+        this.peerAddresses = ConcurrentHashMap.newKeySet();
+        this.peerAddresses.addAll(peerAddresses);
+        this.history = history;
     }
 
     /**
@@ -45,33 +137,196 @@ public class Group implements Serializable {
      */
     public Group(Group other) {
         this.name = other.name;
-        this.peerAddresses = new HashSet<>(other.peerAddresses);
-        this.history = new ArrayList<>(other.history);
+        this.mode = other.mode;
+        this.peerAddresses = ConcurrentHashMap.newKeySet();
+        this.peerAddresses.addAll(other.peerAddresses);
+        this.history = other.history.copy();
+        this.membership.putAll(other.membership);
     }
 
     /**
-     * Gets the list of messages in the group's chat history.
+     * Gets an immutable snapshot of the messages in the group's chat history. The messages
+     * of {@link GroupMode#CRDT} groups are in causal order, by the sequence numbers of their
+     * IDs and then their origins, which is the same on every peer holding the same messages.
      *
      * @return the list of messages in the group's chat history.
      */
     public List<Message> getHistory() {
-        return history;
+        return mode == GroupMode.CRDT ? causalLog().snapshot() : history.snapshot();
     }
 
     /**
-     * Adds a message to the group's chat history.
+     * Reads one page of the group's chat history, in the order of {@link #getHistory()}.
+     *
+     * @param query    the window to read
+     * @param cursor   the cursor returned with the previous page, or {@link HistoryPage#FIRST_PAGE}
+     * @param pageSize the maximum number of messages to return
+     * @return the page of messages
+     */
+    public HistoryPage readHistory(HistoryQuery query, long cursor, int pageSize) {
+        return mode == GroupMode.CRDT ? causalLog().read(query, cursor, pageSize) : history.read(query, cursor, pageSize);
+    }
+
+    /**
+     * Returns the sequence number, in the order of {@link #getHistory()}, of a message of the history log.
+     * In CRDT groups a message received late takes its place among the earlier ones.
+     *
+     * @param position the position of the message in {@link #history}
+     * @return its sequence number
+     */
+    public long sequenceOf(int position) {
+        return mode == GroupMode.CRDT ? causalLog().indexOf(position) : position;
+    }
+
+    /**
+     * Adds a message to the group's chat history, unless a message with the same ID
+     * was added recently or, for {@link GroupMode#CRDT} groups, at any time.
      *
      * @param message the message to add to the group's chat history.
+     * @return true if the message was added, false if it was a duplicate.
      */
-    public void addMessageToGroupHistory(Message message) {
-        if (history.size() > 1) {
-            Message lastMessage = history.get(history.size() - 1);
-            if (message.contents.equals(lastMessage.contents) && message.from.equals(lastMessage.from)) {
-                return;
+    public boolean addMessageToGroupHistory(Message message) {
+        if (message.id != null && isDuplicate(message.id)) {
+            return false;
+        }
+
+        history.append(message);
+        // Only once appended, so that a message that failed to append can be added later
+        if (message.id != null) {
+            seenMessages().add(message.id);
+        }
+        HistoryDigest current;
+        synchronized (this) {
+            current = digest;
+        }
+        if (current != null) {
+            current.add(message.id, history.size() - 1);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a message with the given ID is already in the history. CRDT groups
+     * get their messages again from anti-entropy and from late batches long after the
+     * recent IDs have moved on, so the whole history is checked for them.
+     */
+    private boolean isDuplicate(MessageId id) {
+        if (seenMessages().contains(id)) {
+            return true;
+        }
+        return mode == GroupMode.CRDT && digest().contains(id, history);
+    }
+
+    /**
+     * Records a change to the membership of a peer if it is newer than the one known.
+     * The caller updates the peer addresses accordingly.
+     *
+     * @param change the change
+     * @return true if the change was recorded, false if a newer one is known
+     */
+    public boolean recordMemberChange(MemberChange change) {
+        MemberChange current = membership.get(change.peer);
+        if (current != null && !change.isNewerThan(current)) {
+            return false;
+        }
+        membership.put(change.peer, change);
+        return true;
+    }
+
+    /**
+     * Returns the latest known change to the membership of a peer.
+     *
+     * @param peer the address of the peer
+     * @return the change, or empty if none is known
+     */
+    public Optional<MemberChange> memberChange(InetSocketAddress peer) {
+        return Optional.ofNullable(membership.get(peer));
+    }
+
+    /**
+     * Returns the latest known change to the membership of every peer, including the peers that left.
+     *
+     * @return the changes
+     */
+    public List<MemberChange> memberChanges() {
+        return new ArrayList<>(membership.values());
+    }
+
+    /**
+     * Returns the Merkle tree over the IDs of the messages in the group's chat history,
+     * building it on first use.
+     *
+     * @return the tree, kept up to date as messages are added.
+     */
+    public synchronized HistoryDigest digest() {
+        if (digest == null) {
+            digest = new HistoryDigest(history);
+        }
+        return digest;
+    }
+
+    /**
+     * Returns the history in causal order, building it on first use.
+     */
+    private synchronized CausalLog causalLog() {
+        if (causal == null) {
+            causal = new CausalLog(history);
+        }
+        return causal;
+    }
+
+    /**
+     * Returns the set of recently seen message IDs, seeding it from the end of the history.
+     */
+    private synchronized SeenSet seenMessages() {
+        if (seen == null) {
+            seen = new SeenSet(SeenSet.DEFAULT_CAPACITY);
+
+            List<Message> messages = history.snapshot();
+            for (int i = Math.max(0, messages.size() - SeenSet.DEFAULT_CAPACITY); i < messages.size(); i++) {
+                MessageId id = messages.get(i).id;
+                if (id != null) {
+                    seen.add(id);
+                }
+            }
+        }
+        return seen;
+    }
+
+    /**
+     * Reads the fields of any version of the group, turning the list of messages of
+     * the first version into a log.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        try {
+            Set<InetSocketAddress> peers = new HashSet<>();
+            for (Object peer : (Collection<?>) fields.get("peerAddresses", Collections.emptySet())) {
+                peers.add((InetSocketAddress) peer);
+            }
+
+            Object messages = fields.get("history", null);
+            MessageLog log;
+            if (messages instanceof MessageLog) {
+                log = (MessageLog) messages;
+            } else {
+                log = new ChunkedMessageLog();
+                if (messages != null) {
+                    for (Object message : (List<?>) messages) {
+                        log.append((Message) message);
+                    }
+                }
             }
+
+            GroupMode mode = (GroupMode) fields.get("mode", GroupMode.CONSENSUS);
+            resolved = new Group((String) fields.get("name", null), mode, peers, log);
+        } catch (ClassCastException e) {
+            throw new InvalidObjectException("Unexpected group field: " + e.getMessage());
         }
+    }
 
-        history.add(message);
+    private Object readResolve() {
+        return resolved;
     }
 
     /**
@@ -0,0 +1,28 @@
+package chat.backend;
+
+/**
+ * Receives changes to the groups of a chat backend as they happen.
+ * <p>
+ * Callbacks run on the thread that applied the change, in the order the changes
+ * were applied within a group, so implementations must return quickly and hand
+ * any real work over to another thread.
+ */
+public interface GroupListener {
+
+    /**
+     * Called after a message was added to the history of a group.
+     *
+     * @param groupName the name of the group.
+     * @param sequence  the sequence number of the message in the group history, which in
+     *                  {@link GroupMode#CRDT} groups may be before the end.
+     * @param message   the message that was added.
+     */
+    void messageAdded(String groupName, long sequence, Message message);
+
+    /**
+     * Called after a group was created, or its history was replaced as a whole.
+     *
+     * @param groupName the name of the group.
+     */
+    void groupChanged(String groupName);
+}
@@ -0,0 +1,26 @@
+package chat.backend;
+
+/**
+ * How a group replicates its history, chosen when the group is created.
+ */
+public enum GroupMode {
+    /**
+     * Every message and file is agreed on by a majority of the peers through Paxos
+     * before it counts as sent.
+     */
+    CONSENSUS,
+
+    /**
+     * The history is a grow-only set of messages, replicated without consensus. A message
+     * counts as sent once it is logged locally, and reaches the other peers in the
+     * background, or through anti-entropy if it could not be delivered. Adding a message
+     * twice has no effect, so every peer ends up with the same messages, and sending
+     * works on both sides of a partition.
+     * <p>
+     * The sequence number of a message ID is a Lamport timestamp: a peer always numbers
+     * a new message above every message it has seen. Sorting by it, and by the origin
+     * for concurrent messages, gives every peer the same order, which respects causality.
+     * The history of such a group is read in that order, see {@link Group#getHistory()}.
+     */
+    CRDT
+}
@@ -0,0 +1,71 @@
+package chat.backend;
+
+import chat.backend.history.HistoryPage;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What a peer gets back when it joins a group: the peers of the group and the first
+ * batch of the messages it is missing. The rest of the messages, if any, are read
+ * with {@link ChatPeer#fetchHistory} starting at the cursor of the batch.
+ */
+public class GroupSync implements Serializable {
+
+	private static final long serialVersionUID = -8654952810758370972L;
+
+	/**
+	 * The name of the group.
+	 */
+	public final String name;
+
+	/**
+	 * How the history of the group is replicated.
+	 */
+	public final GroupMode mode;
+
+	/**
+	 * The peers of the group, including the one that accepted the join.
+	 */
+	public final Set<InetSocketAddress> peerAddresses;
+
+	/**
+	 * The latest change to the membership of every peer, for {@link GroupMode#CRDT}
+	 * groups, or null for consensus groups.
+	 */
+	public final List<MemberChange> memberChanges;
+
+	/**
+	 * The sequence number, in the history of the accepting peer, that the missing
+	 * messages start at. Messages just before the high-water mark of the joining peer
+	 * are sent again, since peers may have added the last ones in a different order.
+	 */
+	public final long fromSequence;
+
+	/**
+	 * The first batch of missing messages.
+	 */
+	public final HistoryPage page;
+
+	/**
+	 * Creates the answer to a join.
+	 *
+	 * @param name          the name of the group
+	 * @param mode          how the history of the group is replicated
+	 * @param peerAddresses the peers of the group
+	 * @param memberChanges the latest membership changes of a CRDT group, or null
+	 * @param fromSequence  the sequence number the missing messages start at
+	 * @param page          the first batch of missing messages
+	 */
+	public GroupSync(String name, GroupMode mode, Set<InetSocketAddress> peerAddresses, List<MemberChange> memberChanges,
+					 long fromSequence, HistoryPage page) {
+		this.name = name;
+		this.mode = mode;
+		this.peerAddresses = peerAddresses;
+		this.memberChanges = memberChanges;
+		this.fromSequence = fromSequence;
+		this.page = page;
+	}
+}
@@ -0,0 +1,62 @@
+package chat.backend;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+/**
+ * A peer joining or leaving a {@link GroupMode#CRDT} group, stamped so that every peer
+ * keeps the same latest change of each member whatever order the changes arrive in.
+ * <p>
+ * The stamp is a message ID taken from the Lamport clock of the peer that made the
+ * change, so a change made after seeing another one is always newer than it.
+ */
+public class MemberChange implements Serializable {
+
+	private static final long serialVersionUID = 2918286209827492613L;
+
+	/**
+	 * The peer that joined or left.
+	 */
+	public final InetSocketAddress peer;
+
+	/**
+	 * Whether the peer is in the group after the change.
+	 */
+	public final boolean present;
+
+	/**
+	 * When the change was made, ordered by sequence number and then by origin.
+	 */
+	public final MessageId stamp;
+
+	/**
+	 * Creates a change to the members of a group.
+	 *
+	 * @param peer    the peer that joined or left
+	 * @param present whether the peer is in the group after the change
+	 * @param stamp   when the change was made
+	 */
+	public MemberChange(InetSocketAddress peer, boolean present, MessageId stamp) {
+		this.peer = peer;
+		this.present = present;
+		this.stamp = stamp;
+	}
+
+	/**
+	 * Returns whether this change was made after another change of the same peer.
+	 *
+	 * @param other the other change
+	 * @return true if this change wins over the other one
+	 */
+	public boolean isNewerThan(MemberChange other) {
+		if (stamp.sequence != other.stamp.sequence) {
+			return stamp.sequence > other.stamp.sequence;
+		}
+		return stamp.origin.compareTo(other.stamp.origin) > 0;
+	}
+
+	@Override
+	public String toString() {
+		return (present ? "+" : "-") + peer + "@" + stamp;
+	}
+}
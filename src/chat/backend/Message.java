@@ -7,6 +7,13 @@ import java.io.Serializable;
  */
 public class Message implements Serializable {
 
+	private static final long serialVersionUID = -5230070678904944491L;
+
+	/**
+	 * The unique ID of the message, or null for messages created without one.
+	 */
+	final MessageId id;
+
 	/**
 	 * The sender of the message.
 	 */
@@ -23,18 +30,40 @@ public class Message implements Serializable {
 	final long timestamp;
 
 	/**
-	 * Constructs a new Message object with the given sender, contents, and timestamp.
+	 * Constructs a new Message object with the given ID, sender, contents, and timestamp.
 	 *
+	 * @param id        the unique ID of the message, or null
 	 * @param from      the sender of the message
 	 * @param contents  the contents of the message
 	 * @param timestamp the timestamp of the message
 	 */
-	public Message(String from, String contents, long timestamp) {
+	public Message(MessageId id, String from, String contents, long timestamp) {
+		this.id = id;
 		this.from = from;
 		this.contents = contents;
 		this.timestamp = timestamp;
 	}
 
+	/**
+	 * Constructs a new Message object without an ID. Such messages are never deduplicated.
+	 *
+	 * @param from      the sender of the message
+	 * @param contents  the contents of the message
+	 * @param timestamp the timestamp of the message
+	 */
+	public Message(String from, String contents, long timestamp) {
+		this(null, from, contents, timestamp);
+	}
+
+	/**
+	 * Returns the unique ID of the message.
+	 *
+	 * @return the ID of the message, or null if it was created without one
+	 */
+	public MessageId getId() {
+		return id;
+	}
+
 	/**
 	 * Returns the sender of the message.
 	 *
@@ -0,0 +1,70 @@
+package chat.backend;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Globally unique identifier of a message, made of the peer that created it
+ * and a sequence number that the peer never reuses.
+ */
+public class MessageId implements Serializable {
+
+	private static final long serialVersionUID = -5153063402147196175L;
+
+	/**
+	 * The peer that created the message.
+	 */
+	final String origin;
+
+	/**
+	 * The position of the message among all messages created by the origin peer.
+	 */
+	final long sequence;
+
+	/**
+	 * Constructs a new MessageId with the given origin and sequence number.
+	 *
+	 * @param origin   the peer that created the message
+	 * @param sequence the sequence number of the message at its origin
+	 */
+	public MessageId(String origin, long sequence) {
+		this.origin = origin;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Returns the peer that created the message.
+	 *
+	 * @return the origin of the message
+	 */
+	public String getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * Returns the sequence number of the message at its origin.
+	 *
+	 * @return the sequence number of the message
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		MessageId messageId = (MessageId) o;
+		return sequence == messageId.sequence && origin.equals(messageId.origin);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(origin, sequence);
+	}
+
+	@Override
+	public String toString() {
+		return origin + "#" + sequence;
+	}
+}
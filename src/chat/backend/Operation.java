@@ -9,6 +9,8 @@ import java.util.Objects;
  * @param <T> the type of the payload argument
  */
 public class Operation<T> implements Serializable {
+	private static final long serialVersionUID = 8602707729413369222L;
+
 	/**
 	 * The type of this operation.
 	 */
@@ -54,6 +56,9 @@ public class Operation<T> implements Serializable {
 	 * The type of the operation.
 	 */
 	public enum OpType {
-		JOIN_GROUP, SEND_MSG, SEND_FILE, LOG_OFF
+		JOIN_GROUP, SEND_MSG, SEND_FILE, LOG_OFF,
+
+		// Only recorded in the write-ahead log, never proposed
+		CREATE_GROUP, SYNC_GROUP, SYNC_HISTORY
 	}
 }
@@ -0,0 +1,251 @@
+package chat.backend;
+
+import chat.backend.paxos.ParticipantLocator;
+import chat.backend.paxos.PaxosParticipant;
+import chat.logging.Logger;
+
+import java.net.InetSocketAddress;
+import java.rmi.ConnectException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads and remote stubs shared by the peers running in one JVM, so that hosting
+ * many identities does not multiply them. A peer started on its own gets a host of
+ * its own, which it shuts down with itself.
+ * <p>
+ * The stubs of other peers are looked up in their registry once and then reused
+ * by every peer of the host, until a call through them fails.
+ * <p>
+ * A host may also share one registry between its peers. Each peer is then bound in it
+ * under its id, the port of its address, instead of opening a registry of its own, and
+ * the peers of the host reach each other directly, without looking anything up. Since
+ * they are all exported on the same anonymous port, the host only listens on that
+ * port and the one of its registry, however many identities it runs.
+ */
+public class PeerHost implements ParticipantLocator {
+
+    /**
+     * Name that a peer with a registry of its own is bound under.
+     */
+    private static final String PEER_NAME = "DistributedChatPeer";
+
+    /**
+     * Port of the shared registries that peers are looked up in when they have
+     * no registry of their own at their address.
+     */
+    public static final int SHARED_REGISTRY_PORT = Integer.getInteger("chat.host.registryPort", Registry.REGISTRY_PORT);
+
+    /**
+     * Threads running the mailboxes of the groups of all the peers.
+     */
+    private final ExecutorService groupExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), daemonThreads("group-worker"));
+
+    /**
+     * Threads making the calls of Paxos rounds, which mostly wait on the network.
+     */
+    private final ExecutorService paxosExecutor = Executors.newCachedThreadPool(daemonThreads("paxos"));
+
+    /**
+     * Threads resyncing groups and sending heartbeats.
+     */
+    private final ExecutorService syncExecutor = Executors.newCachedThreadPool(daemonThreads("group-sync"));
+
+    /**
+     * Schedules the heartbeats of all the peers.
+     */
+    private final ScheduledExecutorService heartbeatExecutor =
+            Executors.newSingleThreadScheduledExecutor(daemonThreads("heartbeat"));
+
+    /**
+     * Writes sampled traces of all the peers.
+     */
+    private final ExecutorService traceWriter = Executors.newSingleThreadExecutor(daemonThreads("trace-writer"));
+
+    /**
+     * Stubs of other peers by address.
+     */
+    private final Map<InetSocketAddress, Remote> stubs = new ConcurrentHashMap<>();
+
+    /**
+     * Registry shared by the peers of the host, or null if each peer has its own.
+     */
+    private final Registry registry;
+
+    /**
+     * Stubs of the peers bound in the shared registry by address, which the other
+     * peers of the host call without a lookup.
+     */
+    private final Map<InetSocketAddress, Remote> identities = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a host whose peers each open a registry of their own.
+     */
+    public PeerHost() {
+        this.registry = null;
+    }
+
+    /**
+     * Creates a host whose peers are all bound in one registry on the given port. Other
+     * hosts find them there if the port is {@link #SHARED_REGISTRY_PORT}.
+     *
+     * @param registryPort the port of the shared registry
+     * @throws RemoteException if the registry cannot be created, for example because the port is taken
+     */
+    public PeerHost(int registryPort) throws RemoteException {
+        this.registry = LocateRegistry.createRegistry(registryPort);
+    }
+
+    ExecutorService groupExecutor() {
+        return groupExecutor;
+    }
+
+    ExecutorService paxosExecutor() {
+        return paxosExecutor;
+    }
+
+    ExecutorService syncExecutor() {
+        return syncExecutor;
+    }
+
+    ScheduledExecutorService heartbeatExecutor() {
+        return heartbeatExecutor;
+    }
+
+    ExecutorService traceWriter() {
+        return traceWriter;
+    }
+
+    /**
+     * Binds an exported peer in the shared registry under its id, and routes the calls
+     * of the other peers of the host to it.
+     *
+     * @param address the address of the peer, whose port is its id
+     * @param peer    the peer
+     * @return whether the peer was bound, false if the host has no shared registry and
+     * the peer must open its own
+     * @throws RemoteException if the peer is not exported or the registry fails
+     */
+    boolean bind(InetSocketAddress address, Remote peer) throws RemoteException {
+        if (registry == null) {
+            return false;
+        }
+        // The stub rather than the peer itself, so that calls still go through serialization
+        Remote stub = RemoteObject.toStub(peer);
+        registry.rebind(name(address.getPort()), stub);
+        identities.put(address, stub);
+        return true;
+    }
+
+    /**
+     * Removes a peer bound with {@link #bind} from the shared registry.
+     *
+     * @param address the address of the peer
+     */
+    void unbind(InetSocketAddress address) {
+        identities.remove(address);
+        try {
+            registry.unbind(name(address.getPort()));
+        } catch (NotBoundException | RemoteException e) {
+            Logger.logError("Could not unbind the peer at %s: %s", address, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the stub of the peer at the given address, looking it up if it is not known yet.
+     * A peer with no registry of its own at its address is looked up by its id in the shared
+     * registry of its machine.
+     *
+     * @param address the address of the peer
+     * @return the stub, which is both a {@link ChatPeer} and a {@link PaxosParticipant}
+     * @throws NotBoundException if no peer is bound at the address
+     * @throws RemoteException   if the registry of the peer cannot be reached
+     */
+    Remote peer(InetSocketAddress address) throws NotBoundException, RemoteException {
+        Remote stub = identities.get(address);
+        if (stub != null) {
+            return stub;
+        }
+        stub = stubs.get(address);
+        if (stub == null) {
+            stub = lookup(address);
+            stubs.put(address, stub);
+        }
+        return stub;
+    }
+
+    private static Remote lookup(InetSocketAddress address) throws NotBoundException, RemoteException {
+        String host = address.getHostString();
+        try {
+            return LocateRegistry.getRegistry(host, address.getPort()).lookup(PEER_NAME);
+        } catch (ConnectException | NotBoundException e) {
+            return LocateRegistry.getRegistry(host, SHARED_REGISTRY_PORT).lookup(name(address.getPort()));
+        }
+    }
+
+    private static String name(int id) {
+        return PEER_NAME + "/" + id;
+    }
+
+    @Override
+    public PaxosParticipant locate(InetSocketAddress address) throws NotBoundException, RemoteException {
+        return (PaxosParticipant) peer(address);
+    }
+
+    /**
+     * Drops the stub of the peer at the given address, since the peer may have
+     * restarted and be bound to a new one.
+     */
+    @Override
+    public void forget(InetSocketAddress address) {
+        stubs.remove(address);
+    }
+
+    /**
+     * Stops the shared threads and closes the shared registry. The peers of the host must be shut down first.
+     */
+    public void shutdown() {
+        heartbeatExecutor.shutdownNow();
+        syncExecutor.shutdownNow();
+        groupExecutor.shutdown();
+        paxosExecutor.shutdown();
+        traceWriter.shutdown();
+        stubs.clear();
+        if (registry != null) {
+            try {
+                UnicastRemoteObject.unexportObject(registry, true);
+            } catch (NoSuchObjectException e) {
+                // Already closed
+            }
+        }
+        try {
+            traceWriter.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
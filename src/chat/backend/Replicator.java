@@ -0,0 +1,144 @@
+package chat.backend;
+
+import chat.logging.Logger;
+
+import java.net.InetSocketAddress;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Spreads the operations of {@link GroupMode#CRDT} groups to the other peers in the
+ * background, so that sending only waits for the local log.
+ * <p>
+ * Each peer has an outbox of operations, sent in batches with at most one batch in
+ * flight, so that a slow peer neither holds up the others nor piles up threads. A
+ * batch that cannot be delivered is dropped, as are the oldest operations of a full
+ * outbox: anti-entropy brings the peer the messages it missed later on.
+ * <p>
+ * Configured through system properties:
+ * <ul>
+ *     <li>{@code chat.crdt.outbox}: operations waiting per peer (default 10000)</li>
+ *     <li>{@code chat.crdt.batchSize}: operations sent in one call (default 256)</li>
+ * </ul>
+ */
+class Replicator {
+
+    /**
+     * Delivers a batch of operations to a peer.
+     */
+    interface Transport {
+        void deliver(InetSocketAddress peer, List<Operation<?>> operations) throws NotBoundException, RemoteException;
+    }
+
+    private static final int OUTBOX_SIZE = Integer.getInteger("chat.crdt.outbox", 10_000);
+    private static final int BATCH_SIZE = Integer.getInteger("chat.crdt.batchSize", 256);
+
+    private final Transport transport;
+    private final ExecutorService executor;
+    private final Map<InetSocketAddress, Outbox> outboxes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a replicator.
+     *
+     * @param transport delivers the batches
+     * @param executor  runs the deliveries
+     */
+    Replicator(Transport transport, ExecutorService executor) {
+        this.transport = transport;
+        this.executor = executor;
+    }
+
+    /**
+     * Queues an operation for the given peers.
+     *
+     * @param peers     the peers to send the operation to
+     * @param operation the operation
+     */
+    void send(Collection<InetSocketAddress> peers, Operation<?> operation) {
+        for (InetSocketAddress peer : peers) {
+            Outbox outbox = outboxes.computeIfAbsent(peer, Outbox::new);
+            if (outbox.add(operation)) {
+                try {
+                    executor.execute(outbox::drain);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down, anti-entropy catches the peer up after the restart
+                    outbox.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Operations waiting to be sent to one peer.
+     */
+    private class Outbox {
+        private final InetSocketAddress peer;
+        private final ArrayDeque<Operation<?>> queue = new ArrayDeque<>();
+        private boolean draining;
+
+        private Outbox(InetSocketAddress peer) {
+            this.peer = peer;
+        }
+
+        /**
+         * Queues an operation, dropping the oldest one if the outbox is full.
+         *
+         * @return true if the caller must start draining the outbox
+         */
+        private synchronized boolean add(Operation<?> operation) {
+            if (queue.size() >= OUTBOX_SIZE) {
+                queue.poll();
+            }
+            queue.add(operation);
+            if (draining) {
+                return false;
+            }
+            draining = true;
+            return true;
+        }
+
+        private synchronized void clear() {
+            queue.clear();
+            draining = false;
+        }
+
+        /**
+         * Sends batches until the outbox is empty.
+         */
+        private void drain() {
+            while (true) {
+                List<Operation<?>> batch;
+                synchronized (this) {
+                    if (queue.isEmpty()) {
+                        draining = false;
+                        return;
+                    }
+                    batch = new ArrayList<>(Math.min(queue.size(), BATCH_SIZE));
+                    while (!queue.isEmpty() && batch.size() < BATCH_SIZE) {
+                        batch.add(queue.poll());
+                    }
+                }
+
+                try {
+                    transport.deliver(peer, batch);
+                } catch (NotBoundException | RemoteException e) {
+                    // The peer is likely down, so the rest would fail as well
+                    int dropped;
+                    synchronized (this) {
+                        dropped = batch.size() + queue.size();
+                        queue.clear();
+                    }
+                    Logger.logDebug("Could not replicate %d operations to %s: %s", dropped, peer, e.getMessage());
+                }
+            }
+        }
+    }
+}
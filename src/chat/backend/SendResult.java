@@ -0,0 +1,24 @@
+package chat.backend;
+
+/**
+ * Outcome of sending a message or a file to a group.
+ */
+public enum SendResult {
+    /**
+     * The group agreed on it, or for a {@link GroupMode#CRDT} group, it was logged on this
+     * peer and reaches the other peers in the background.
+     */
+    SENT,
+
+    /**
+     * It was proposed but the group did not agree on it, for example because too few peers answered,
+     * or for a {@link GroupMode#CRDT} group, it could not be logged on this peer.
+     */
+    FAILED,
+
+    /**
+     * It was not proposed because this peer already has too many proposals waiting, so it
+     * can be retried later. See {@code AdmissionControl} for the limits.
+     */
+    REJECTED
+}
@@ -0,0 +1,94 @@
+package chat.backend;
+
+import chat.logging.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one at a time and in submission order on top of a shared executor.
+ * <p>
+ * Tasks of different serial executors run in parallel on the shared threads,
+ * while tasks of the same serial executor never overlap, so the state that only
+ * they touch needs no locking. Each executor acts as the mailbox of its owner.
+ * <p>
+ * Tasks always run on the shared executor, never on the submitting thread, which may
+ * be an RMI handler or the event dispatch thread, and may hold locks that a task or
+ * the listeners it calls need in turn.
+ */
+public final class SerialExecutor implements Executor {
+
+    /**
+     * Maximum number of tasks run in one go before yielding the thread to other executors.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    private final Executor executor;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether a drain of the queue is scheduled or running.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Creates a serial executor that runs its tasks on the given executor.
+     *
+     * @param executor the shared executor
+     */
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Queues a task behind the ones already submitted.
+     *
+     * @throws RejectedExecutionException if the shared executor is shut down
+     */
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        try {
+            schedule();
+        } catch (RejectedExecutionException e) {
+            tasks.remove(task);
+            throw e;
+        }
+    }
+
+    private void schedule() {
+        if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Logger.logError("Task failed: " + e.getMessage());
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            // Tasks may have arrived after the last poll
+            schedule();
+        }
+    }
+}
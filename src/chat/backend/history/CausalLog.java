@@ -0,0 +1,188 @@
+package chat.backend.history;
+
+import chat.backend.Message;
+import chat.backend.MessageId;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * View of a message log in causal order, by the sequence numbers of the message IDs
+ * and then their origins. Every peer holding the same messages sees them in the same
+ * order, whatever order it received them in. Messages without an ID come first, in
+ * the order they were appended.
+ * <p>
+ * The view keeps the sort keys and the positions of the messages in the underlying
+ * log, sorted, and catches up with messages appended to the log on every access.
+ * Most messages arrive in clock order, so they are added at the end, while a late
+ * message moves the ones after it up by one.
+ */
+public class CausalLog extends MessageLog {
+
+    private final MessageLog log;
+
+    // Sorted together by sequence and origin
+    private long[] sequences = new long[1024];
+    private String[] origins = new String[1024];
+    private int[] positions = new int[1024];
+
+    /**
+     * Number of messages of the log indexed so far.
+     */
+    private int count;
+
+    /**
+     * Number of messages without an ID, which take the first places.
+     */
+    private int withoutId;
+
+    /**
+     * Creates a causal view of the given log, indexing the messages it already holds.
+     *
+     * @param log the log in the order the messages were received
+     */
+    public CausalLog(MessageLog log) {
+        this.log = log;
+        catchUp();
+    }
+
+    @Override
+    public synchronized Message get(int index) {
+        catchUp();
+        return log.get(positions[Objects.checkIndex(index, count)]);
+    }
+
+    @Override
+    public synchronized long timestampAt(int index) {
+        catchUp();
+        return log.timestampAt(positions[Objects.checkIndex(index, count)]);
+    }
+
+    @Override
+    public synchronized int size() {
+        catchUp();
+        return count;
+    }
+
+    /**
+     * Appends a message to the underlying log and places it in causal order.
+     */
+    @Override
+    public synchronized void append(Message message) {
+        log.append(message);
+        catchUp();
+    }
+
+    @Override
+    public MessageLog copy() {
+        return new CausalLog(log.copy());
+    }
+
+    /**
+     * Returns an immutable view of the messages currently in the log, in causal order.
+     * Messages added later, even ones placed before the end, do not show up in the view.
+     */
+    @Override
+    public synchronized List<Message> snapshot() {
+        catchUp();
+        int[] order = Arrays.copyOf(positions, count);
+        return new AbstractList<Message>() {
+            @Override
+            public Message get(int index) {
+                return log.get(order[index]);
+            }
+
+            @Override
+            public int size() {
+                return order.length;
+            }
+        };
+    }
+
+    /**
+     * Returns the place in causal order of the message at the given position of the underlying log.
+     *
+     * @param position the position of the message in the order it was received
+     * @return its index in this view
+     */
+    public synchronized int indexOf(int position) {
+        catchUp();
+        MessageId id = log.get(position).getId();
+        if (id == null) {
+            // Ordered by position among themselves, at the start
+            for (int i = 0; i < withoutId; i++) {
+                if (positions[i] == position) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("Message at " + position + " is not indexed");
+        }
+        return search(id.getSequence(), id.getOrigin());
+    }
+
+    /**
+     * Indexes the messages appended to the log since the last call.
+     */
+    private void catchUp() {
+        int size = log.size();
+        for (int position = count; position < size; position++) {
+            MessageId id = log.get(position).getId();
+            insert(position, id == null ? Long.MIN_VALUE : id.getSequence(), id == null ? null : id.getOrigin());
+        }
+    }
+
+    private void insert(int position, long sequence, String origin) {
+        if (count == positions.length) {
+            sequences = Arrays.copyOf(sequences, count * 2);
+            origins = Arrays.copyOf(origins, count * 2);
+            positions = Arrays.copyOf(positions, count * 2);
+        }
+
+        int index;
+        if (origin == null) {
+            index = withoutId++;
+        } else {
+            index = search(sequence, origin);
+            index = index < 0 ? -index - 1 : index;
+        }
+        System.arraycopy(sequences, index, sequences, index + 1, count - index);
+        System.arraycopy(origins, index, origins, index + 1, count - index);
+        System.arraycopy(positions, index, positions, index + 1, count - index);
+        sequences[index] = sequence;
+        origins[index] = origin;
+        positions[index] = position;
+        count++;
+    }
+
+    /**
+     * Finds the message with the given key among the ones with an ID, like
+     * {@link Arrays#binarySearch(long[], long)}.
+     */
+    private int search(long sequence, String origin) {
+        int low = withoutId;
+        int high = count - 1;
+        // Most messages go at the end
+        if (high >= low && compare(high, sequence, origin) < 0) {
+            return -(count + 1);
+        }
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, sequence, origin);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int compare(int index, long sequence, String origin) {
+        int cmp = Long.compare(sequences[index], sequence);
+        return cmp != 0 ? cmp : origins[index].compareTo(origin);
+    }
+}
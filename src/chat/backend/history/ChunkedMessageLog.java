@@ -0,0 +1,234 @@
+package chat.backend.history;
+
+import chat.backend.Message;
+import chat.backend.MessageId;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * In-memory message log made of fixed-size chunks.
+ * <p>
+ * Each chunk stores its messages column by column: timestamps, message IDs with
+ * interned origins, interned sender IDs, and the UTF-8 contents packed into a single byte arena, which can be kept
+ * off-heap with {@code -Dchat.history.offHeap=true}. {@link Message} objects are
+ * only built when a message is read.
+ * <p>
+ * Readers never lock: the size is published through a volatile write after
+ * the message is stored, a chunk's arena is only replaced through a volatile write
+ * once it holds every earlier message, and full chunks are never written again. Copies
+ * share all chunks with the original and only clone the partially filled
+ * tail chunk when they append to it for the first time.
+ */
+public class ChunkedMessageLog extends MessageLog implements Serializable {
+
+    private static final long serialVersionUID = -9063417314026667831L;
+
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * Initial size of the contents arena of a chunk.
+     */
+    private static final int INITIAL_ARENA_SIZE = 16 * 1024;
+
+    private static final int NO_ID = -1;
+
+    private static final boolean OFF_HEAP = Boolean.getBoolean("chat.history.offHeap");
+
+    /**
+     * Directory of chunks, replaced by a larger copy when it runs out of room.
+     */
+    private transient volatile Chunk[] chunks;
+
+    private transient volatile int size;
+
+    /**
+     * Whether the chunk that receives the next append belongs to this log alone.
+     * Guarded by this.
+     */
+    private transient boolean ownsTail;
+
+    /**
+     * Creates an empty log.
+     */
+    public ChunkedMessageLog() {
+        this.chunks = new Chunk[4];
+        this.size = 0;
+        this.ownsTail = true;
+    }
+
+    /**
+     * Creates a log sharing the chunks of another one.
+     */
+    private ChunkedMessageLog(ChunkedMessageLog other) {
+        // Read the size first, so that every message below it is in the chunks we read
+        int size = other.size;
+        Chunk[] chunks = Arrays.copyOf(other.chunks, other.chunks.length);
+
+        // Forget chunks the other log filled after we read its size
+        for (int chunk = (size + CHUNK_SIZE - 1) / CHUNK_SIZE; chunk < chunks.length; chunk++) {
+            chunks[chunk] = null;
+        }
+
+        this.chunks = chunks;
+        this.size = size;
+        this.ownsTail = false;
+    }
+
+    @Override
+    public Message get(int index) {
+        Objects.checkIndex(index, size);
+        return chunks[index / CHUNK_SIZE].message(index % CHUNK_SIZE);
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        Objects.checkIndex(index, size);
+        return chunks[index / CHUNK_SIZE].timestamps[index % CHUNK_SIZE];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void append(Message message) {
+        int chunk = size / CHUNK_SIZE;
+        Chunk[] directory = chunks;
+
+        if (chunk == directory.length) {
+            directory = Arrays.copyOf(directory, directory.length * 2);
+        }
+        if (directory[chunk] == null) {
+            directory[chunk] = new Chunk();
+            ownsTail = true;
+        } else if (!ownsTail) {
+            // The tail is still shared with the log we were copied from
+            directory[chunk] = directory[chunk].copy();
+            ownsTail = true;
+        }
+
+        directory[chunk].put(size % CHUNK_SIZE, message);
+        chunks = directory;
+        size = size + 1;
+    }
+
+    @Override
+    public MessageLog copy() {
+        return new ChunkedMessageLog(this);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        int size = this.size;
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeObject(get(i));
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        int size = in.readInt();
+        this.chunks = new Chunk[Math.max(4, (size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+        this.ownsTail = true;
+        for (int i = 0; i < size; i++) {
+            append((Message) in.readObject());
+        }
+    }
+
+    /**
+     * Up to CHUNK_SIZE messages stored in parallel arrays.
+     */
+    private static final class Chunk {
+        private final long[] timestamps;
+        private final long[] sequences;
+
+        /**
+         * Interned origin of every message's ID, or NO_ID for messages without one.
+         */
+        private final int[] origins;
+        private final int[] senders;
+
+        /**
+         * End offset of every message's contents within the arena.
+         */
+        private final int[] ends;
+
+        /**
+         * Contents of the messages. Volatile because an append may replace it while readers
+         * look up earlier messages, which must then see the copied contents of the new one.
+         */
+        private volatile ByteBuffer arena;
+
+        private Chunk() {
+            this.timestamps = new long[CHUNK_SIZE];
+            this.sequences = new long[CHUNK_SIZE];
+            this.origins = new int[CHUNK_SIZE];
+            this.senders = new int[CHUNK_SIZE];
+            this.ends = new int[CHUNK_SIZE];
+            this.arena = allocate(INITIAL_ARENA_SIZE);
+        }
+
+        private Chunk(Chunk other) {
+            this.timestamps = other.timestamps.clone();
+            this.sequences = other.sequences.clone();
+            this.origins = other.origins.clone();
+            this.senders = other.senders.clone();
+            this.ends = other.ends.clone();
+            ByteBuffer arena = other.arena;
+            this.arena = allocate(arena.capacity()).put(0, arena, 0, arena.capacity());
+        }
+
+        private Chunk copy() {
+            return new Chunk(this);
+        }
+
+        private void put(int slot, Message message) {
+            byte[] contents = message.getContents().getBytes(StandardCharsets.UTF_8);
+            int start = slot == 0 ? 0 : ends[slot - 1];
+            int end = start + contents.length;
+            ByteBuffer arena = this.arena;
+
+            if (end > arena.capacity()) {
+                // Readers may still hold the old arena, which keeps every earlier message
+                ByteBuffer grown = allocate(Math.max(end, 2 * arena.capacity()));
+                grown.put(0, arena, 0, start);
+                arena = grown;
+            }
+
+            // Written before the new arena is published, so no reader sees it without these contents
+            arena.put(start, contents);
+            MessageId id = message.getId();
+            timestamps[slot] = message.getTimestamp();
+            sequences[slot] = id == null ? 0 : id.getSequence();
+            origins[slot] = id == null ? NO_ID : SenderTable.intern(id.getOrigin());
+            senders[slot] = SenderTable.intern(message.getFrom());
+            ends[slot] = end;
+
+            if (slot == CHUNK_SIZE - 1 && end < arena.capacity()) {
+                // The chunk is full, so the arena will not grow again
+                arena = allocate(end).put(0, arena, 0, end);
+            }
+            this.arena = arena;
+        }
+
+        private Message message(int slot) {
+            int start = slot == 0 ? 0 : ends[slot - 1];
+            byte[] contents = new byte[ends[slot] - start];
+            arena.get(start, contents);
+            MessageId id = origins[slot] == NO_ID ? null : new MessageId(SenderTable.name(origins[slot]), sequences[slot]);
+            return new Message(id, SenderTable.name(senders[slot]),
+                    new String(contents, StandardCharsets.UTF_8), timestamps[slot]);
+        }
+
+        private static ByteBuffer allocate(int capacity) {
+            return OFF_HEAP ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package chat.backend.history;
+
+import chat.backend.MessageId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Merkle tree over the IDs of the messages in the history of a group, used by peers to
+ * check cheaply whether they hold the same messages and, if not, to find the few
+ * parts of the history that differ.
+ * <p>
+ * Peers may add concurrent messages in different orders, so the tree is not built over
+ * positions in the history. Every message falls into one of {@link #LEAVES} leaves by
+ * the hash of its ID instead, and each node holds the sum of the hashes of the IDs
+ * below it. A sum does not depend on the order the messages were added in, and is
+ * kept up to date on every append by walking a single path up the tree.
+ * <p>
+ * Nodes are numbered as in a binary heap: the root is {@link #ROOT} and the children of
+ * node {@code i} are {@code 2i} and {@code 2i + 1}, so the leaves are the nodes from
+ * {@code LEAVES} to {@code 2 * LEAVES - 1}. Messages without an ID are left out.
+ */
+public class HistoryDigest {
+
+    /**
+     * Number of levels below the root.
+     */
+    public static final int DEPTH = 10;
+
+    /**
+     * Number of leaves of the tree.
+     */
+    public static final int LEAVES = 1 << DEPTH;
+
+    /**
+     * The node number of the root.
+     */
+    public static final int ROOT = 1;
+
+    private final long[] hashes = new long[2 * LEAVES];
+
+    /**
+     * Positions in the history of the messages in each leaf, in the first
+     * {@code counts[leaf]} entries, or null while the leaf is empty.
+     */
+    private final int[][] positions = new int[LEAVES][];
+
+    /**
+     * Hashes of the IDs of the messages in each leaf, in the same order as their positions.
+     */
+    private final long[][] idHashes = new long[LEAVES][];
+    private final int[] counts = new int[LEAVES];
+
+    /**
+     * Number of positions of the history the tree covers.
+     */
+    private int covered;
+
+    /**
+     * Builds the tree over the messages currently in a history.
+     *
+     * @param history the history
+     */
+    public HistoryDigest(MessageLog history) {
+        int size = history.size();
+        for (int i = 0; i < size; i++) {
+            add(history.get(i).getId(), i);
+        }
+    }
+
+    /**
+     * Adds the message at a position of the history to the tree. Positions the tree
+     * already covers are ignored, so a message appended while the tree was being
+     * built is not counted twice.
+     *
+     * @param id       the ID of the message, or null if it has none
+     * @param position the position of the message in the history
+     */
+    public synchronized void add(MessageId id, int position) {
+        if (position < covered) {
+            return;
+        }
+        covered = position + 1;
+        if (id == null) {
+            return;
+        }
+
+        long hash = hash(id);
+        int leaf = leafOf(hash);
+        int[] leafPositions = positions[leaf];
+        if (leafPositions == null) {
+            leafPositions = positions[leaf] = new int[4];
+            idHashes[leaf] = new long[4];
+        } else if (counts[leaf] == leafPositions.length) {
+            leafPositions = positions[leaf] = Arrays.copyOf(leafPositions, leafPositions.length * 2);
+            idHashes[leaf] = Arrays.copyOf(idHashes[leaf], leafPositions.length);
+        }
+        idHashes[leaf][counts[leaf]] = hash;
+        leafPositions[counts[leaf]++] = position;
+
+        for (int node = LEAVES + leaf; node >= ROOT; node >>>= 1) {
+            hashes[node] += hash;
+        }
+    }
+
+    /**
+     * Returns the hashes of the given nodes.
+     *
+     * @param nodes the node numbers
+     * @return the hash of each node, in the same order
+     */
+    public synchronized long[] hashes(int[] nodes) {
+        long[] result = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            result[i] = isNode(nodes[i]) ? hashes[nodes[i]] : 0;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the positions in the history of the messages in a leaf, in the order they were added.
+     *
+     * @param leaf the node number of the leaf
+     * @return the positions
+     */
+    public synchronized int[] positions(int leaf) {
+        if (!isLeaf(leaf) || positions[leaf - LEAVES] == null) {
+            return new int[0];
+        }
+        return Arrays.copyOf(positions[leaf - LEAVES], counts[leaf - LEAVES]);
+    }
+
+    /**
+     * Returns whether a message with the given ID is in the history. Only the messages
+     * of the leaf of the ID whose hashes match are read from the history.
+     *
+     * @param id      the ID of a message
+     * @param history the history the tree was built over
+     * @return true if the history holds a message with the ID
+     */
+    public boolean contains(MessageId id, MessageLog history) {
+        long hash = hash(id);
+        int leaf = leafOf(hash);
+        int[] candidates = new int[0];
+        int found = 0;
+        synchronized (this) {
+            for (int i = 0; i < counts[leaf]; i++) {
+                if (idHashes[leaf][i] == hash) {
+                    if (found == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, found + 1);
+                    }
+                    candidates[found++] = positions[leaf][i];
+                }
+            }
+        }
+
+        for (int position : candidates) {
+            if (id.equals(history.get(position).getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether a node number is a leaf of the tree.
+     *
+     * @param node the node number
+     * @return true if the node is a leaf
+     */
+    public static boolean isLeaf(int node) {
+        return node >= LEAVES && node < 2 * LEAVES;
+    }
+
+    private static boolean isNode(int node) {
+        return node >= ROOT && node < 2 * LEAVES;
+    }
+
+    private static int leafOf(long hash) {
+        return (int) (hash >>> (64 - DEPTH));
+    }
+
+    /**
+     * Hashes an ID to 64 bits that are spread evenly, so that the leaves fill up
+     * evenly and sums of hashes rarely collide.
+     */
+    private static long hash(MessageId id) {
+        // FNV-1a over the origin, then the sequence, finished with the MurmurHash3 mixer
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : id.getOrigin().getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        hash = (hash ^ id.getSequence()) * 0x100000001b3L;
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,70 @@
+package chat.backend.history;
+
+import chat.backend.Message;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of messages read from the history of a group, oldest first.
+ */
+public class HistoryPage implements Serializable {
+
+	private static final long serialVersionUID = 2791424429177892717L;
+
+	/**
+	 * Cursor that starts reading at the beginning of the window.
+	 */
+	public static final long FIRST_PAGE = -1;
+
+	/**
+	 * Page without messages and without a next page.
+	 */
+	public static final HistoryPage EMPTY = new HistoryPage(Collections.emptyList(), Collections.emptyList(), -1, 0);
+
+	/**
+	 * The messages in the page.
+	 */
+	public final List<Message> messages;
+
+	/**
+	 * The sequence numbers of the messages in the page.
+	 */
+	public final List<Long> sequences;
+
+	/**
+	 * The cursor to pass to get the next page, or -1 if the window has no more messages.
+	 */
+	public final long nextCursor;
+
+	/**
+	 * The number of messages in the history when the page was read, which is the
+	 * sequence number the next message will get.
+	 */
+	public final long historySize;
+
+	/**
+	 * Creates a page of messages.
+	 *
+	 * @param messages    the messages in the page
+	 * @param sequences   the sequence numbers of the messages
+	 * @param nextCursor  the cursor of the next page, or -1 if there is none
+	 * @param historySize the number of messages in the history
+	 */
+	public HistoryPage(List<Message> messages, List<Long> sequences, long nextCursor, long historySize) {
+		this.messages = messages;
+		this.sequences = sequences;
+		this.nextCursor = nextCursor;
+		this.historySize = historySize;
+	}
+
+	/**
+	 * Returns whether the window has more messages after this page.
+	 *
+	 * @return true if there is a next page
+	 */
+	public boolean hasNext() {
+		return nextCursor >= 0;
+	}
+}
@@ -0,0 +1,91 @@
+package chat.backend.history;
+
+import java.io.Serializable;
+
+/**
+ * A window over the history of a group.
+ * <p>
+ * The sequence number of a message is its position in the group history, starting
+ * at 0. A window is bounded by sequence numbers and may further be restricted to a
+ * range of timestamps.
+ */
+public class HistoryQuery implements Serializable {
+
+	private static final long serialVersionUID = 712268641573408892L;
+
+	/**
+	 * The lowest sequence number in the window, inclusive.
+	 */
+	public final long fromSequence;
+
+	/**
+	 * The highest sequence number in the window, exclusive.
+	 */
+	public final long toSequence;
+
+	/**
+	 * The earliest timestamp of messages in the window, inclusive.
+	 */
+	public final long fromTime;
+
+	/**
+	 * The latest timestamp of messages in the window, exclusive.
+	 */
+	public final long toTime;
+
+	/**
+	 * Creates a window bounded by the given sequence numbers and timestamps.
+	 *
+	 * @param fromSequence the lowest sequence number, inclusive
+	 * @param toSequence   the highest sequence number, exclusive
+	 * @param fromTime     the earliest timestamp, inclusive
+	 * @param toTime       the latest timestamp, exclusive
+	 */
+	public HistoryQuery(long fromSequence, long toSequence, long fromTime, long toTime) {
+		this.fromSequence = Math.max(0, fromSequence);
+		this.toSequence = toSequence;
+		this.fromTime = fromTime;
+		this.toTime = toTime;
+	}
+
+	/**
+	 * Creates a window over the messages with the given sequence numbers.
+	 *
+	 * @param fromSequence the lowest sequence number, inclusive
+	 * @param toSequence   the highest sequence number, exclusive
+	 * @return the window
+	 */
+	public static HistoryQuery sequences(long fromSequence, long toSequence) {
+		return new HistoryQuery(fromSequence, toSequence, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a window over the messages added since the given sequence number.
+	 *
+	 * @param sequence the sequence number of the first message to include
+	 * @return the window
+	 */
+	public static HistoryQuery since(long sequence) {
+		return sequences(sequence, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a window over the messages sent within the given time range.
+	 *
+	 * @param fromTime the earliest timestamp, inclusive
+	 * @param toTime   the latest timestamp, exclusive
+	 * @return the window
+	 */
+	public static HistoryQuery between(long fromTime, long toTime) {
+		return new HistoryQuery(0, Long.MAX_VALUE, fromTime, toTime);
+	}
+
+	/**
+	 * Returns whether this window is restricted to a range of timestamps.
+	 *
+	 * @return true if the timestamps of messages must be checked
+	 */
+	public boolean hasTimeRange() {
+		return fromTime != Long.MIN_VALUE || toTime != Long.MAX_VALUE;
+	}
+}
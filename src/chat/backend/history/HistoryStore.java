@@ -0,0 +1,91 @@
+package chat.backend.history;
+
+import chat.logging.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the memory-mapped histories of all groups of a peer under one directory.
+ */
+public class HistoryStore implements Closeable {
+
+    private final Path directory;
+
+    /**
+     * Histories that have been opened so far, keyed by group name.
+     */
+    private final Map<String, MappedHistory> histories = new HashMap<>();
+
+    /**
+     * Creates a store rooted at the given directory.
+     *
+     * @param directory directory holding one subdirectory per group
+     */
+    public HistoryStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the history of the given group, creating an empty one if it does not exist.
+     *
+     * @param groupName the name of the group
+     * @return the history of the group
+     * @throws IOException if the history files could not be opened
+     */
+    public synchronized MappedHistory open(String groupName) throws IOException {
+        MappedHistory history = histories.get(groupName);
+        if (history == null) {
+            history = new MappedHistory(directoryOf(groupName));
+            histories.put(groupName, history);
+        }
+        return history;
+    }
+
+    /**
+     * Returns the directory holding the history of the given group, where
+     * other per-group files can be stored as well.
+     *
+     * @param groupName the name of the group
+     * @return the directory of the group
+     */
+    public Path directoryOf(String groupName) {
+        return directory.resolve(encode(groupName));
+    }
+
+    /**
+     * Writes all open histories to disk.
+     */
+    public synchronized void force() {
+        for (MappedHistory history : histories.values()) {
+            history.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (MappedHistory history : histories.values()) {
+            try {
+                history.close();
+            } catch (IOException e) {
+                Logger.logError("Could not close history: " + e.getMessage());
+            }
+        }
+        histories.clear();
+    }
+
+    /**
+     * Group names are user input, so they are hex-encoded to get safe directory names.
+     */
+    private static String encode(String groupName) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : groupName.getBytes(StandardCharsets.UTF_8)) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
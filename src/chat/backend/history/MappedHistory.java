@@ -0,0 +1,288 @@
+package chat.backend.history;
+
+import chat.backend.Message;
+import chat.backend.MessageId;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Message history of a single group stored in memory-mapped segment files.
+ * <p>
+ * Messages are appended to fixed-size segment files and located through an offset
+ * index that is memory-mapped as well, so opening a history only maps the index.
+ * Segments are mapped and messages decoded only when they are read.
+ * <p>
+ * Appends are serialized among writers, while readers never lock: the size
+ * is published only after both the record and its index entry are written.
+ */
+public class MappedHistory extends MessageLog implements Serializable {
+
+    /**
+     * Size of a segment file. Larger messages get a segment of their own.
+     */
+    private static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Number of index entries mapped when a history is first created.
+     */
+    private static final int INITIAL_INDEX_ENTRIES = 64 * 1024;
+
+    /**
+     * The index starts with the message count, followed by one entry per message.
+     */
+    private static final int INDEX_HEADER_SIZE = Long.BYTES;
+
+    /**
+     * Every record starts with the timestamp, the ID sequence and the length of the ID origin,
+     * followed by the origin, sender and contents.
+     */
+    private static final int RECORD_HEADER_SIZE = Long.BYTES + Long.BYTES + Integer.BYTES;
+
+    /**
+     * Origin length stored for messages without an ID.
+     */
+    private static final int NO_ID = -1;
+
+    private final Path directory;
+
+    private final FileChannel indexChannel;
+    private volatile MappedByteBuffer index;
+
+    /**
+     * Mapped segments keyed by their number, populated on first access.
+     */
+    private final Map<Integer, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+
+    private volatile int size;
+
+    // Where the next message will be written, guarded by this
+    private int tailSegment;
+    private int tailPosition;
+
+    /**
+     * Opens the history stored in the given directory, creating it if needed.
+     *
+     * @param directory directory holding the index and segment files
+     * @throws IOException if the index could not be opened
+     */
+    MappedHistory(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        this.indexChannel = FileChannel.open(directory.resolve("index.dat"), CREATE, READ, WRITE);
+        long capacity = Math.max(indexChannel.size(), INDEX_HEADER_SIZE + (long) INITIAL_INDEX_ENTRIES * Long.BYTES);
+        this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+        this.size = (int) index.getLong(0);
+        locateTail();
+    }
+
+    @Override
+    public Message get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+
+        long entry = index.getLong(INDEX_HEADER_SIZE + i * Long.BYTES);
+        ByteBuffer record = segment((int) (entry >>> 32)).duplicate();
+        record.position((int) entry);
+        return decode(record);
+    }
+
+    /**
+     * Reads the timestamp at the start of the record, without decoding the rest.
+     */
+    @Override
+    public long timestampAt(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+
+        long entry = index.getLong(INDEX_HEADER_SIZE + i * Long.BYTES);
+        return segment((int) (entry >>> 32)).getLong((int) entry);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void append(Message message) {
+        MessageId id = message.getId();
+        byte[] origin = id == null ? new byte[0] : id.getOrigin().getBytes(StandardCharsets.UTF_8);
+        byte[] from = message.getFrom().getBytes(StandardCharsets.UTF_8);
+        byte[] contents = message.getContents().getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_HEADER_SIZE + origin.length + Integer.BYTES + from.length + Integer.BYTES + contents.length;
+
+        try {
+            if (tailPosition > 0 && tailPosition + length > mapSegment(tailSegment, 0).capacity()) {
+                tailSegment++;
+                tailPosition = 0;
+            }
+            ensureIndexCapacity(size + 1);
+
+            ByteBuffer record = mapSegment(tailSegment, length).duplicate();
+            record.position(tailPosition);
+            record.putLong(message.getTimestamp());
+            record.putLong(id == null ? 0 : id.getSequence());
+            record.putInt(id == null ? NO_ID : origin.length).put(origin);
+            record.putInt(from.length).put(from);
+            record.putInt(contents.length).put(contents);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        index.putLong(INDEX_HEADER_SIZE + size * Long.BYTES, ((long) tailSegment << 32) | tailPosition);
+        index.putLong(0, size + 1);
+        tailPosition += length;
+        size = size + 1;
+    }
+
+    /**
+     * Copies all messages into an in-memory log.
+     */
+    @Override
+    public MessageLog copy() {
+        ChunkedMessageLog copy = new ChunkedMessageLog();
+        for (Message message : snapshot()) {
+            copy.append(message);
+        }
+        return copy;
+    }
+
+    /**
+     * Drops all messages from the given position onwards. Unlike appends, this
+     * is not safe for readers holding a snapshot that covers the dropped messages.
+     *
+     * @param newSize number of messages to keep
+     */
+    public synchronized void truncate(int newSize) {
+        if (newSize < size) {
+            size = newSize;
+            index.putLong(0, size);
+            locateTail();
+        }
+    }
+
+    /**
+     * Writes all changes to the underlying files to disk.
+     */
+    public synchronized void force() {
+        index.force();
+        for (MappedByteBuffer segment : segments.values()) {
+            if (!segment.isReadOnly()) {
+                segment.force();
+            }
+        }
+    }
+
+    /**
+     * Closes the index file. Mapped buffers are released once they are garbage collected.
+     */
+    void close() throws IOException {
+        force();
+        indexChannel.close();
+    }
+
+    /**
+     * Sends the messages instead of the mapping when the history is serialized.
+     */
+    private Object writeReplace() {
+        return copy();
+    }
+
+    /**
+     * Finds where the record following the last message ends.
+     */
+    private void locateTail() {
+        if (size == 0) {
+            tailSegment = 0;
+            tailPosition = 0;
+            return;
+        }
+
+        long entry = index.getLong(INDEX_HEADER_SIZE + (size - 1) * Long.BYTES);
+        ByteBuffer record = segment((int) (entry >>> 32)).duplicate();
+        record.position((int) entry);
+        record.getLong();
+        record.getLong();
+        for (int field = 0; field < 3; field++) {
+            int length = Math.max(0, record.getInt());
+            record.position(record.position() + length);
+        }
+
+        tailSegment = (int) (entry >>> 32);
+        tailPosition = record.position();
+    }
+
+    private void ensureIndexCapacity(int entries) throws IOException {
+        long required = INDEX_HEADER_SIZE + (long) entries * Long.BYTES;
+        if (required > index.capacity()) {
+            index.force();
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(required, 2L * index.capacity()));
+        }
+    }
+
+    private MappedByteBuffer segment(int number) {
+        try {
+            return mapSegment(number, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Maps a segment, creating it large enough for a record of the given length if needed.
+     */
+    private MappedByteBuffer mapSegment(int number, int minimumLength) throws IOException {
+        MappedByteBuffer segment = segments.get(number);
+        if (segment == null || segment.capacity() < minimumLength) {
+            try (FileChannel channel = FileChannel.open(segmentPath(number), CREATE, READ, WRITE)) {
+                long length = Math.max(Math.max(channel.size(), SEGMENT_SIZE), minimumLength);
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            }
+            segments.put(number, segment);
+        }
+        return segment;
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve(String.format("segment-%08d.dat", number));
+    }
+
+    private static Message decode(ByteBuffer record) {
+        try {
+            long timestamp = record.getLong();
+            long sequence = record.getLong();
+            String origin = readString(record);
+            String from = readString(record);
+            String contents = readString(record);
+            MessageId id = origin == null ? null : new MessageId(origin, sequence);
+            return new Message(id, from, contents, timestamp);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("Corrupted history record", e);
+        }
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length == NO_ID) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,100 @@
+package chat.backend.history;
+
+import chat.backend.Message;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Append-only log of the messages in a group's chat history.
+ * <p>
+ * Messages are never modified once appended, so readers can work on a
+ * snapshot of the log without locking and without copying it, while
+ * writers keep appending.
+ */
+public abstract class MessageLog extends AbstractList<Message> {
+
+    /**
+     * Appends a message to the end of the log.
+     *
+     * @param message the message to append
+     */
+    public abstract void append(Message message);
+
+    /**
+     * Creates an independent copy of the log. Later appends to either log
+     * are not visible in the other.
+     *
+     * @return a copy of the log
+     */
+    public abstract MessageLog copy();
+
+    /**
+     * Returns the timestamp of a message without decoding the rest of it.
+     *
+     * @param index the position of the message
+     * @return the timestamp of the message
+     */
+    public long timestampAt(int index) {
+        return get(index).getTimestamp();
+    }
+
+    /**
+     * Reads one page of the messages in a window of the log, oldest first.
+     *
+     * @param query    the window to read
+     * @param cursor   the cursor returned with the previous page, or {@link HistoryPage#FIRST_PAGE}
+     * @param pageSize the maximum number of messages to return
+     * @return the page of messages
+     */
+    public HistoryPage read(HistoryQuery query, long cursor, int pageSize) {
+        int size = size();
+        long start = Math.max(cursor < 0 ? query.fromSequence : cursor, query.fromSequence);
+        int end = (int) Math.min(query.toSequence, size);
+
+        List<Message> messages = new ArrayList<>();
+        List<Long> sequences = new ArrayList<>();
+        int i = (int) Math.min(start, end);
+        for (; i < end && messages.size() < pageSize; i++) {
+            if (query.hasTimeRange()) {
+                long timestamp = timestampAt(i);
+                if (timestamp < query.fromTime || timestamp >= query.toTime) {
+                    continue;
+                }
+            }
+            messages.add(get(i));
+            sequences.add((long) i);
+        }
+
+        return new HistoryPage(messages, sequences, i < end ? i : -1, size);
+    }
+
+    @Override
+    public boolean add(Message message) {
+        append(message);
+        return true;
+    }
+
+    /**
+     * Returns an immutable view of the messages currently in the log.
+     * Messages appended later do not show up in the view.
+     *
+     * @return a snapshot of the log
+     */
+    public List<Message> snapshot() {
+        int size = size();
+        return new AbstractList<Message>() {
+            @Override
+            public Message get(int index) {
+                return MessageLog.this.get(Objects.checkIndex(index, size));
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package chat.backend.history;
+
+import chat.backend.MessageId;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded set of the most recently seen message IDs of a group, used to drop
+ * messages that are delivered more than once.
+ * <p>
+ * Only the latest IDs are kept, since duplicates in consensus groups come from
+ * retried or re-proposed operations that arrive shortly after the original. A
+ * duplicate arriving after {@link #DEFAULT_CAPACITY} newer messages is not caught,
+ * so CRDT groups, whose operations may come back much later, check the whole history
+ * as well. The set is exact rather than probabilistic, so a new message is never
+ * dropped by mistake.
+ */
+public class SeenSet {
+
+    /**
+     * Default number of IDs remembered per group.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final Map<MessageId, Boolean> recent;
+
+    /**
+     * Creates an empty set that remembers up to the given number of IDs.
+     *
+     * @param capacity the maximum number of IDs to remember
+     */
+    public SeenSet(int capacity) {
+        this.recent = new LinkedHashMap<MessageId, Boolean>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<MessageId, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns whether an ID was seen recently, without making it more recent.
+     *
+     * @param id the ID of a message
+     * @return true if the ID is in the set
+     */
+    public synchronized boolean contains(MessageId id) {
+        return recent.containsKey(id);
+    }
+
+    /**
+     * Records an ID as seen.
+     *
+     * @param id the ID of a message
+     * @return true if the ID was not seen recently, false if it is a duplicate
+     */
+    public synchronized boolean add(MessageId id) {
+        return recent.put(id, Boolean.TRUE) == null;
+    }
+}
@@ -0,0 +1,55 @@
+package chat.backend.history;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns sender names and message origins so that histories can refer to them
+ * by a small integer ID instead of holding a copy of the name in every message.
+ */
+final class SenderTable {
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    /**
+     * Names indexed by ID, replaced by a larger copy when it runs out of room.
+     */
+    private static volatile String[] names = new String[64];
+
+    private static int count = 0;
+
+    private SenderTable() {
+    }
+
+    /**
+     * Returns the ID of the given sender, assigning a new one if needed.
+     */
+    static int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (SenderTable.class) {
+            id = ids.get(name);
+            if (id == null) {
+                if (count == names.length) {
+                    names = Arrays.copyOf(names, count * 2);
+                }
+                id = count++;
+                names[id] = name;
+                // Readers can only learn the ID after this put, so they also see the name
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Returns the name of the sender with the given ID.
+     */
+    static String name(int id) {
+        return names[id];
+    }
+}
@@ -0,0 +1,62 @@
+package chat.backend.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a group on a peer.
+ */
+public class GroupMetrics implements GroupMetricsMXBean {
+    public final LatencyHistogram roundLatency = new LatencyHistogram();
+    public final LatencyHistogram commitLatency = new LatencyHistogram();
+    public final LatencyHistogram localCommitLatency = new LatencyHistogram();
+    public final LongAdder consensusFailures = new LongAdder();
+    public final LatencyHistogram admissionWait = new LatencyHistogram();
+    public final LongAdder admissionRejections = new LongAdder();
+    public final LongAdder antiEntropyRepairs = new LongAdder();
+
+    @Override
+    public LatencySnapshot getRoundLatency() {
+        return roundLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getCommitLatency() {
+        return commitLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getLocalCommitLatency() {
+        return localCommitLatency.snapshot();
+    }
+
+    @Override
+    public long getConsensusFailures() {
+        return consensusFailures.sum();
+    }
+
+    @Override
+    public LatencySnapshot getAdmissionWait() {
+        return admissionWait.snapshot();
+    }
+
+    @Override
+    public long getAdmissionRejections() {
+        return admissionRejections.sum();
+    }
+
+    @Override
+    public long getAntiEntropyRepairs() {
+        return antiEntropyRepairs.sum();
+    }
+
+    @Override
+    public void reset() {
+        roundLatency.reset();
+        commitLatency.reset();
+        localCommitLatency.reset();
+        consensusFailures.reset();
+        admissionWait.reset();
+        admissionRejections.reset();
+        antiEntropyRepairs.reset();
+    }
+}
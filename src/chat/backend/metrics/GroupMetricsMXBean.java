@@ -0,0 +1,47 @@
+package chat.backend.metrics;
+
+/**
+ * Metrics of a group on a peer, exposed through JMX.
+ */
+public interface GroupMetricsMXBean {
+
+    /**
+     * Returns the latency of whole rounds run by this peer for the group.
+     */
+    LatencySnapshot getRoundLatency();
+
+    /**
+     * Returns the latency of messages and files sent to the group, from the call until they are committed.
+     */
+    LatencySnapshot getCommitLatency();
+
+    /**
+     * Returns the latency of recording and applying an operation locally, including the fsync.
+     */
+    LatencySnapshot getLocalCommitLatency();
+
+    /**
+     * Returns the number of rounds that did not reach consensus.
+     */
+    long getConsensusFailures();
+
+    /**
+     * Returns how long messages and files sent to the group waited for their turn to be proposed.
+     */
+    LatencySnapshot getAdmissionWait();
+
+    /**
+     * Returns the number of messages and files rejected because too many were waiting.
+     */
+    long getAdmissionRejections();
+
+    /**
+     * Returns the number of messages this peer was missing and got from another peer through anti-entropy.
+     */
+    long getAntiEntropyRepairs();
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    void reset();
+}
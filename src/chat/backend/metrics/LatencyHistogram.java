@@ -0,0 +1,129 @@
+package chat.backend.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies that can be recorded from any number of threads without locking.
+ * <p>
+ * Latencies are counted in microsecond buckets that grow exponentially, with four buckets
+ * per power of two, so percentiles are accurate to within 25% over any range of values
+ * while the histogram stays a fixed size.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of buckets below 4 microseconds, which hold one value each.
+     */
+    private static final int LINEAR_BUCKETS = 4;
+
+    /**
+     * Number of buckets, enough for latencies of several hours.
+     */
+    private static final int BUCKETS = 4 * 36;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(nanos / 1000));
+        count.increment();
+        totalNanos.add(nanos);
+        if (nanos > maxNanos.get()) {
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    /**
+     * Records the time elapsed since the given start.
+     *
+     * @param startNanos the start, as returned by {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns a snapshot of the recorded latencies.
+     *
+     * @return the snapshot
+     */
+    public LatencySnapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = counts.get(i);
+            total += buckets[i];
+        }
+
+        long maxMicros = maxNanos.get() / 1000;
+        double meanMicros = total == 0 ? 0 : totalNanos.sum() / 1000.0 / count.sum();
+        return new LatencySnapshot(total, meanMicros,
+                percentile(buckets, total, 0.50, maxMicros),
+                percentile(buckets, total, 0.90, maxMicros),
+                percentile(buckets, total, 0.99, maxMicros),
+                percentile(buckets, total, 0.999, maxMicros),
+                maxMicros);
+    }
+
+    /**
+     * Forgets all recorded latencies. Latencies recorded concurrently may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile, capped at the maximum.
+     */
+    private static long percentile(long[] buckets, long total, double percentile, long maxMicros) {
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(lowerBound(i + 1), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+
+        // Power of two, followed by the two bits below the highest one
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - 2)) & 3;
+        return Math.min(BUCKETS - 1, (exponent - 1) * 4 + sub);
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / 4 + 1;
+        int sub = bucket % 4;
+        return (long) (4 + sub) << (exponent - 2);
+    }
+}
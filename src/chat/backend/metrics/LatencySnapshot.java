@@ -0,0 +1,74 @@
+package chat.backend.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Summary of the latencies recorded in a {@link LatencyHistogram}, in microseconds.
+ * Percentiles are the upper bound of the bucket they fall in.
+ */
+public class LatencySnapshot {
+	private final long count;
+	private final double meanMicros;
+	private final long p50Micros;
+	private final long p90Micros;
+	private final long p99Micros;
+	private final long p999Micros;
+	private final long maxMicros;
+
+	/**
+	 * Creates a snapshot of latencies.
+	 *
+	 * @param count      the number of recorded latencies
+	 * @param meanMicros the mean latency
+	 * @param p50Micros  the median latency
+	 * @param p90Micros  the 90th percentile
+	 * @param p99Micros  the 99th percentile
+	 * @param p999Micros the 99.9th percentile
+	 * @param maxMicros  the highest latency
+	 */
+	@ConstructorProperties({"count", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "p999Micros", "maxMicros"})
+	public LatencySnapshot(long count, double meanMicros, long p50Micros, long p90Micros, long p99Micros, long p999Micros,
+	                       long maxMicros) {
+		this.count = count;
+		this.meanMicros = meanMicros;
+		this.p50Micros = p50Micros;
+		this.p90Micros = p90Micros;
+		this.p99Micros = p99Micros;
+		this.p999Micros = p999Micros;
+		this.maxMicros = maxMicros;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMeanMicros() {
+		return meanMicros;
+	}
+
+	public long getP50Micros() {
+		return p50Micros;
+	}
+
+	public long getP90Micros() {
+		return p90Micros;
+	}
+
+	public long getP99Micros() {
+		return p99Micros;
+	}
+
+	public long getP999Micros() {
+		return p999Micros;
+	}
+
+	public long getMaxMicros() {
+		return maxMicros;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1fus p50=%dus p90=%dus p99=%dus p999=%dus max=%dus",
+				count, meanMicros, p50Micros, p90Micros, p99Micros, p999Micros, maxMicros);
+	}
+}
@@ -0,0 +1,151 @@
+package chat.backend.metrics;
+
+import chat.logging.Logger;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Metrics of a peer, its groups and the peers it talks to, registered as MBeans
+ * on the platform MBean server under the {@code chat} domain:
+ * <ul>
+ *     <li>{@code chat:type=Peer,name=<address>}</li>
+ *     <li>{@code chat:type=Group,peer=<address>,name=<group>}</li>
+ *     <li>{@code chat:type=RemotePeer,peer=<address>,name=<remote address>}</li>
+ * </ul>
+ * Recording only touches lock-free counters, so metrics are always on.
+ */
+public class Metrics {
+    private final String peerName;
+    private final PeerMetrics peer = new PeerMetrics();
+    private final Map<String, GroupMetrics> groups = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, RemotePeerMetrics> remotes = new ConcurrentHashMap<>();
+    private final Set<ObjectName> registered = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates the metrics of the peer at the given address and registers them.
+     *
+     * @param address the address of the peer
+     */
+    public Metrics(InetSocketAddress address) {
+        this.peerName = ObjectName.quote(address.getHostString() + ":" + address.getPort());
+        register("type=Peer,name=" + peerName, peer);
+    }
+
+    /**
+     * Returns the metrics of the peer itself.
+     *
+     * @return the peer metrics
+     */
+    public PeerMetrics peer() {
+        return peer;
+    }
+
+    /**
+     * Returns the metrics of the given group, registering them on first use.
+     *
+     * @param groupName the name of the group
+     * @return the group metrics
+     */
+    public GroupMetrics group(String groupName) {
+        GroupMetrics metrics = groups.get(groupName);
+        if (metrics != null) {
+            return metrics;
+        }
+        return groups.computeIfAbsent(groupName, name -> {
+            GroupMetrics created = new GroupMetrics();
+            register("type=Group,peer=" + peerName + ",name=" + ObjectName.quote(name), created);
+            return created;
+        });
+    }
+
+    /**
+     * Returns the metrics of the calls to the given peer, registering them on first use.
+     *
+     * @param address the address of the other peer
+     * @return the remote peer metrics
+     */
+    public RemotePeerMetrics remote(InetSocketAddress address) {
+        RemotePeerMetrics metrics = remotes.get(address);
+        if (metrics != null) {
+            return metrics;
+        }
+        return remotes.computeIfAbsent(address, a -> {
+            RemotePeerMetrics created = new RemotePeerMetrics();
+            register("type=RemotePeer,peer=" + peerName + ",name="
+                    + ObjectName.quote(a.getHostString() + ":" + a.getPort()), created);
+            return created;
+        });
+    }
+
+    /**
+     * Unregisters all the MBeans of this peer.
+     */
+    public void close() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (InstanceNotFoundException | MBeanRegistrationException e) {
+                // Already gone
+            }
+        }
+        registered.clear();
+    }
+
+    private void register(String properties, Object mbean) {
+        try {
+            ObjectName name = new ObjectName("chat:" + properties);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+            registered.add(name);
+        } catch (JMException e) {
+            // The metrics are still recorded, they just cannot be seen
+            Logger.logError("Could not register MBean %s: %s", properties, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of bytes the given object takes once serialized, as it would be sent over RMI.
+     *
+     * @param object the object
+     * @return the serialized size, or 0 if it cannot be serialized
+     */
+    public static long serializedSize(Serializable object) {
+        CountingOutputStream counter = new CountingOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(counter)) {
+            out.writeObject(object);
+        } catch (IOException e) {
+            return 0;
+        }
+        return counter.count;
+    }
+
+    /**
+     * Output stream that only counts the bytes written to it.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
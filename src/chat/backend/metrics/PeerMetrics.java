@@ -0,0 +1,123 @@
+package chat.backend.metrics;
+
+import chat.backend.Operation.OpType;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Consensus metrics of a peer.
+ */
+public class PeerMetrics implements PeerMetricsMXBean {
+    public final LatencyHistogram prepareLatency = new LatencyHistogram();
+    public final LatencyHistogram acceptLatency = new LatencyHistogram();
+    public final LatencyHistogram learnLatency = new LatencyHistogram();
+    public final LatencyHistogram roundLatency = new LatencyHistogram();
+    public final LatencyHistogram commitLatency = new LatencyHistogram();
+    public final LongAdder rejects = new LongAdder();
+    public final LongAdder preemptions = new LongAdder();
+    public final LongAdder consensusFailures = new LongAdder();
+
+    private final Map<OpType, LongAdder> bytesSent = counters();
+    private final Map<OpType, LongAdder> bytesReceived = counters();
+
+    /**
+     * Records bytes sent to other peers for an operation of the given type.
+     *
+     * @param type  the type of the operation
+     * @param bytes the number of bytes
+     */
+    public void sent(OpType type, long bytes) {
+        bytesSent.get(type).add(bytes);
+    }
+
+    /**
+     * Records bytes received from other peers for an operation of the given type.
+     *
+     * @param type  the type of the operation
+     * @param bytes the number of bytes
+     */
+    public void received(OpType type, long bytes) {
+        bytesReceived.get(type).add(bytes);
+    }
+
+    @Override
+    public LatencySnapshot getPrepareLatency() {
+        return prepareLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getAcceptLatency() {
+        return acceptLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getLearnLatency() {
+        return learnLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getRoundLatency() {
+        return roundLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getCommitLatency() {
+        return commitLatency.snapshot();
+    }
+
+    @Override
+    public long getRejects() {
+        return rejects.sum();
+    }
+
+    @Override
+    public long getPreemptions() {
+        return preemptions.sum();
+    }
+
+    @Override
+    public long getConsensusFailures() {
+        return consensusFailures.sum();
+    }
+
+    @Override
+    public Map<String, Long> getBytesSent() {
+        return sums(bytesSent);
+    }
+
+    @Override
+    public Map<String, Long> getBytesReceived() {
+        return sums(bytesReceived);
+    }
+
+    @Override
+    public void reset() {
+        prepareLatency.reset();
+        acceptLatency.reset();
+        learnLatency.reset();
+        roundLatency.reset();
+        commitLatency.reset();
+        rejects.reset();
+        preemptions.reset();
+        consensusFailures.reset();
+        bytesSent.values().forEach(LongAdder::reset);
+        bytesReceived.values().forEach(LongAdder::reset);
+    }
+
+    private static Map<OpType, LongAdder> counters() {
+        Map<OpType, LongAdder> counters = new EnumMap<>(OpType.class);
+        for (OpType type : OpType.values()) {
+            counters.put(type, new LongAdder());
+        }
+        return counters;
+    }
+
+    private static Map<String, Long> sums(Map<OpType, LongAdder> counters) {
+        Map<String, Long> sums = new TreeMap<>();
+        counters.forEach((type, counter) -> sums.put(type.name(), counter.sum()));
+        return sums;
+    }
+}
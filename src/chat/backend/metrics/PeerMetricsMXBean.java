@@ -0,0 +1,64 @@
+package chat.backend.metrics;
+
+import java.util.Map;
+
+/**
+ * Consensus metrics of a peer, exposed through JMX.
+ */
+public interface PeerMetricsMXBean {
+
+    /**
+     * Returns the latency of the PREPARE stage of rounds run by this peer.
+     */
+    LatencySnapshot getPrepareLatency();
+
+    /**
+     * Returns the latency of the ACCEPT stage of rounds run by this peer.
+     */
+    LatencySnapshot getAcceptLatency();
+
+    /**
+     * Returns the latency of the LEARN stage of rounds run by this peer.
+     */
+    LatencySnapshot getLearnLatency();
+
+    /**
+     * Returns the latency of whole rounds run by this peer.
+     */
+    LatencySnapshot getRoundLatency();
+
+    /**
+     * Returns the latency of messages and files sent by this peer, from the call until they are committed.
+     */
+    LatencySnapshot getCommitLatency();
+
+    /**
+     * Returns the number of REJECTED responses received.
+     */
+    long getRejects();
+
+    /**
+     * Returns the number of rounds whose PREPARE stage found an already accepted proposal.
+     */
+    long getPreemptions();
+
+    /**
+     * Returns the number of rounds that did not reach consensus.
+     */
+    long getConsensusFailures();
+
+    /**
+     * Returns the serialized size of the proposals sent to other peers, by operation type.
+     */
+    Map<String, Long> getBytesSent();
+
+    /**
+     * Returns the serialized size of the proposals received from other peers, by operation type.
+     */
+    Map<String, Long> getBytesReceived();
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    void reset();
+}
@@ -0,0 +1,34 @@
+package chat.backend.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the calls made from a peer to another peer.
+ */
+public class RemotePeerMetrics implements RemotePeerMetricsMXBean {
+    public final LatencyHistogram rpcLatency = new LatencyHistogram();
+    public final LongAdder timeouts = new LongAdder();
+    public final LongAdder failures = new LongAdder();
+
+    @Override
+    public LatencySnapshot getRpcLatency() {
+        return rpcLatency.snapshot();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public void reset() {
+        rpcLatency.reset();
+        timeouts.reset();
+        failures.reset();
+    }
+}
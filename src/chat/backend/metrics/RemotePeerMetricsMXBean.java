@@ -0,0 +1,27 @@
+package chat.backend.metrics;
+
+/**
+ * Metrics of the calls made from a peer to another peer, exposed through JMX.
+ */
+public interface RemotePeerMetricsMXBean {
+
+    /**
+     * Returns the latency of Paxos calls that were answered.
+     */
+    LatencySnapshot getRpcLatency();
+
+    /**
+     * Returns the number of calls that were not answered before the stage deadline.
+     */
+    long getTimeouts();
+
+    /**
+     * Returns the number of calls that failed.
+     */
+    long getFailures();
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    void reset();
+}
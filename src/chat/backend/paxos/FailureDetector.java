@@ -0,0 +1,180 @@
+package chat.backend.paxos;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Phi accrual failure detector for the peers of a participant.
+ * <p>
+ * Every sign of life from a peer, either a Paxos response or a heartbeat, is
+ * recorded as an arrival. The detector keeps a window of the intervals between
+ * arrivals and computes phi, the suspicion level that the peer is down given how
+ * long it has been silent compared to its usual intervals. A peer is suspected
+ * once phi crosses the threshold and is cleared by its next arrival.
+ * Source: https://doi.org/10.1109/RELDIS.2004.1353004
+ */
+public class FailureDetector {
+
+    /**
+     * Phi above which a peer is suspected.
+     */
+    private static final double PHI_THRESHOLD = 8.0;
+
+    /**
+     * Number of intervals kept per peer.
+     */
+    private static final int WINDOW_SIZE = 100;
+
+    /**
+     * Lower bound on the standard deviation, so that very regular peers are not
+     * suspected after a single late arrival.
+     */
+    private static final double MIN_STD_DEVIATION_MS = 200;
+
+    /**
+     * Silence that is tolerated on top of the usual interval.
+     */
+    private static final double ACCEPTABLE_PAUSE_MS = 1000;
+
+    /**
+     * Interval assumed for a peer that was only heard from once.
+     */
+    private final long expectedIntervalMs;
+
+    private final Map<InetSocketAddress, History> histories = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a failure detector for peers expected to be heard from
+     * at least once per the given interval.
+     *
+     * @param expectedIntervalMs expected interval between arrivals, in milliseconds
+     */
+    public FailureDetector(long expectedIntervalMs) {
+        this.expectedIntervalMs = expectedIntervalMs;
+    }
+
+    /**
+     * Records that the given peer is alive.
+     *
+     * @param peer address of the peer
+     */
+    public void heartbeat(InetSocketAddress peer) {
+        histories.computeIfAbsent(peer, p -> new History(expectedIntervalMs)).arrival(System.currentTimeMillis());
+    }
+
+    /**
+     * Starts tracking the given peer as if it had just been heard from, unless it
+     * is already tracked. This way a peer that never answers is suspected as well.
+     *
+     * @param peer address of the peer
+     */
+    public void watch(InetSocketAddress peer) {
+        histories.computeIfAbsent(peer, p -> {
+            History history = new History(expectedIntervalMs);
+            history.arrival(System.currentTimeMillis());
+            return history;
+        });
+    }
+
+    /**
+     * Returns whether the given peer is suspected to be down.
+     * Peers that are not tracked are not suspected.
+     *
+     * @param peer address of the peer
+     * @return true if the peer is suspected
+     */
+    public boolean isSuspected(InetSocketAddress peer) {
+        return phi(peer) > PHI_THRESHOLD;
+    }
+
+    /**
+     * Returns how long the given peer has been silent.
+     *
+     * @param peer address of the peer
+     * @return milliseconds since the last arrival, or 0 if it is not tracked
+     */
+    public long silentForMillis(InetSocketAddress peer) {
+        History history = histories.get(peer);
+        return history == null ? 0 : System.currentTimeMillis() - history.lastArrival();
+    }
+
+    /**
+     * Stops tracking the given peer.
+     *
+     * @param peer address of the peer
+     */
+    public void forget(InetSocketAddress peer) {
+        histories.remove(peer);
+    }
+
+    /**
+     * Returns the current suspicion level of the given peer.
+     *
+     * @param peer address of the peer
+     * @return phi, or 0 if the peer is not tracked
+     */
+    public double phi(InetSocketAddress peer) {
+        History history = histories.get(peer);
+        return history == null ? 0 : history.phi(System.currentTimeMillis());
+    }
+
+    /**
+     * Arrival history of a single peer.
+     */
+    private static class History {
+        private final Deque<Long> intervals = new ArrayDeque<>();
+        private long lastArrival = -1;
+        private double sum;
+        private double squaredSum;
+
+        private History(long expectedIntervalMs) {
+            // Seed with the expected interval so that phi is defined after the first arrival
+            add(expectedIntervalMs);
+        }
+
+        private synchronized void arrival(long now) {
+            if (lastArrival >= 0) {
+                add(now - lastArrival);
+            }
+            lastArrival = now;
+        }
+
+        private synchronized long lastArrival() {
+            return lastArrival;
+        }
+
+        private synchronized double phi(long now) {
+            if (lastArrival < 0) {
+                return 0;
+            }
+
+            double mean = sum / intervals.size() + ACCEPTABLE_PAUSE_MS;
+            double variance = squaredSum / intervals.size() - (sum / intervals.size()) * (sum / intervals.size());
+            double deviation = Math.max(Math.sqrt(Math.max(variance, 0)), MIN_STD_DEVIATION_MS);
+
+            // Logistic approximation of the normal distribution's tail
+            double y = ((now - lastArrival) - mean) / deviation;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (now - lastArrival > mean) {
+                return -Math.log10(e / (1.0 + e));
+            } else {
+                return -Math.log10(1.0 - 1.0 / (1.0 + e));
+            }
+        }
+
+        private void add(long interval) {
+            intervals.addLast(interval);
+            sum += interval;
+            squaredSum += (double) interval * interval;
+
+            if (intervals.size() > WINDOW_SIZE) {
+                long oldest = intervals.removeFirst();
+                sum -= oldest;
+                squaredSum -= (double) oldest * oldest;
+            }
+        }
+    }
+}
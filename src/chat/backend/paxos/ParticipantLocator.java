@@ -0,0 +1,32 @@
+package chat.backend.paxos;
+
+import java.net.InetSocketAddress;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+
+/**
+ * Finds the Paxos participant at the address of a peer.
+ * Peers are normally found through the RMI registry, other transports are used for benchmarking.
+ */
+@FunctionalInterface
+public interface ParticipantLocator {
+
+	/**
+	 * Returns the participant at the given address.
+	 *
+	 * @param address the address of the peer
+	 * @return the participant
+	 * @throws NotBoundException if no participant is bound at the address
+	 * @throws RemoteException   if the peer cannot be reached
+	 */
+	PaxosParticipant locate(InetSocketAddress address) throws NotBoundException, RemoteException;
+
+	/**
+	 * Tells the locator that a call to the participant at the given address failed,
+	 * so that a locator caching participants looks it up again next time.
+	 *
+	 * @param address the address of the peer
+	 */
+	default void forget(InetSocketAddress address) {
+	}
+}
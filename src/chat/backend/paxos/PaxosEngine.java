@@ -2,6 +2,12 @@ package chat.backend.paxos;
 
 import chat.backend.Group;
 import chat.backend.Result;
+import chat.backend.metrics.GroupMetrics;
+import chat.backend.metrics.LatencyHistogram;
+import chat.backend.metrics.Metrics;
+import chat.backend.metrics.PeerMetrics;
+import chat.backend.metrics.RemotePeerMetrics;
+import chat.backend.trace.Tracer;
 import chat.logging.Logger;
 
 import java.net.InetSocketAddress;
@@ -9,13 +15,11 @@ import java.net.MalformedURLException;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 import java.util.concurrent.*;
 
 import static chat.backend.paxos.PaxosResponse.Status.ACCEPTED;
+import static chat.backend.paxos.PaxosResponse.Status.REJECTED;
 
 /**
  * PaxosEngine runs the Paxos protocol on behalf of a peer.
@@ -26,18 +30,66 @@ public class PaxosEngine {
 
     private static final double CONSENSUS_THRESHOLD = 0.5;
 
+    /**
+     * How long a stage waits for the responses of all participants.
+     */
+    private static final long STAGE_TIMEOUT_MS = 1000;
+
+    /**
+     * Tracks which peers are alive, fed by the responses to every stage.
+     */
+    private final FailureDetector failureDetector;
+
+    /**
+     * Records how long rounds, stages and calls take.
+     */
+    private final Metrics metrics;
+
+    /**
+     * Records the spans of rounds, written out for sampled and slow rounds.
+     */
+    private final Tracer tracer;
+
+    /**
+     * Finds the participants, through the RMI registry unless another transport is given.
+     */
+    private final ParticipantLocator locator;
+
     /**
      * Create a PaxosEngine instance that utilizes a thread pool
-     * of the given size to dispatch messages to other PaxosParticipants.
+     * to dispatch messages to other PaxosParticipants, skips
+     * the peers that the given failure detector suspects, and
+     * records its rounds in the given metrics and tracer.
      */
-    public PaxosEngine() {
-        this.executorService = Executors.newCachedThreadPool();
+    public PaxosEngine(FailureDetector failureDetector, Metrics metrics, Tracer tracer) {
+        this(failureDetector, metrics, tracer, PaxosEngine::lookup);
+    }
+
+    /**
+     * Create a PaxosEngine instance like {@link #PaxosEngine(FailureDetector, Metrics, Tracer)}
+     * that finds participants through the given locator instead of the RMI registry.
+     */
+    public PaxosEngine(FailureDetector failureDetector, Metrics metrics, Tracer tracer, ParticipantLocator locator) {
+        this(failureDetector, metrics, tracer, locator, Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Create a PaxosEngine instance like {@link #PaxosEngine(FailureDetector, Metrics, Tracer, ParticipantLocator)}
+     * that makes its calls on the given threads, which may be shared with other peers.
+     */
+    public PaxosEngine(FailureDetector failureDetector, Metrics metrics, Tracer tracer, ParticipantLocator locator,
+                       ExecutorService executorService) {
+        this.executorService = executorService;
+        this.failureDetector = failureDetector;
+        this.metrics = metrics;
+        this.tracer = tracer;
+        this.locator = locator;
     }
 
     /**
      * Represents the various stages in the Paxos protocol.
      */
-    private enum PaxosStage {
+    enum PaxosStage {
         PREPARE, ACCEPT, LEARN
     }
 
@@ -45,49 +97,104 @@ public class PaxosEngine {
      * Connects to all the participants in the protocol and runs all the stages of the
      * Paxos protocol for the given proposal. Returns the result which is dependent on whether
      * the proposal received a consensual acceptance or some other situation.
+     * <p>
+     * Suspected peers are not contacted, but they still count towards the group size
+     * when checking for consensus, so that a partitioned minority can never decide alone.
+     * <p>
+     * Once a majority accepted the proposal, it is chosen, and the round succeeds even if
+     * too few participants confirm the LEARN. Some of them may already have committed it,
+     * and anti-entropy brings it to the others, so reporting a failure would be false.
+     * A failed round therefore means that no participant committed the proposal.
+     * <p>
+     * The round is traced under the trace ID of the proposal. If it has been slow by the
+     * time it reaches LEARN, the proposal is marked as sampled so that the participants
+     * write out their spans as well.
      *
      * @param paxosProposal - proposal to run Paxos for
      * @param group         - group for which Paxos is running
      * @return - Result of the process
      */
     public Result<?> run(PaxosProposal paxosProposal, Group group) throws NotBoundException, RemoteException {
-        List<PaxosParticipant> participants = connectToPeers(group);
+        List<InetSocketAddress> members = new ArrayList<>(group.peerAddresses);
+        List<InetSocketAddress> participants = livePeers(members);
+        Map<InetSocketAddress, PaxosParticipant> stubs = new ConcurrentHashMap<>();
         PaxosStage[] stages = new PaxosStage[]{
                 PaxosStage.PREPARE,
                 PaxosStage.ACCEPT,
                 PaxosStage.LEARN
         };
 
-        if (participants.isEmpty()) {
+        if (members.isEmpty()) {
             return Result.success("No participants in the group yet");
         }
 
+        long roundStart = System.nanoTime();
+        long roundStartMicros = Tracer.nowMicros();
+        PeerMetrics peerMetrics = metrics.peer();
+        GroupMetrics groupMetrics = metrics.group(group.name);
+        paxosProposal.serializedSize = Metrics.serializedSize(paxosProposal);
+        paxosProposal.sampled |= Tracer.sampleUpFront();
+
         List<PaxosResponse> responses = null;
         for (PaxosStage stage : stages) {
-            responses = this.dispatch(paxosProposal, stage, participants);
-            ConsensusResponse response = isConsensus(responses, stage, participants);
+            if (stage == PaxosStage.LEARN && Tracer.isSlow(System.nanoTime() - roundStart)) {
+                paxosProposal.sampled = true;
+            }
+
+            long stageStart = System.nanoTime();
+            paxosProposal.sentAtMicros = Tracer.nowMicros();
+            responses = this.dispatch(paxosProposal, stage, participants, stubs);
+            stageLatency(stage).recordSince(stageStart);
+            peerMetrics.sent(paxosProposal.operation.type, paxosProposal.serializedSize * participants.size());
+            ConsensusResponse response = isConsensus(responses, stage, members.size());
+            tracer.record(paxosProposal.traceId, stage.name(), null, paxosProposal.sentAtMicros, 0,
+                    (System.nanoTime() - stageStart) / 1000, response.name());
 
-            if (response.equals(ConsensusResponse.CONSENSUS_NOT_REACHED)) {
+            if (response.equals(ConsensusResponse.CONSENSUS_NOT_REACHED) && stage == PaxosStage.LEARN) {
+                // A majority accepted it, so it is chosen, and the peers that learned it have
+                // committed it. The others get it through anti-entropy, so it is not a failure.
+                Logger.logError("Paxos: Chosen proposal learned by too few participants, left to anti-entropy");
+            } else if (response.equals(ConsensusResponse.CONSENSUS_NOT_REACHED)) {
                 Logger.logError("Paxos: Consensus not reached during " + stage);
+                peerMetrics.consensusFailures.increment();
+                groupMetrics.consensusFailures.increment();
+                // Failed rounds are always worth a look
+                finishTrace(paxosProposal, roundStart, roundStartMicros, "FAILED", true);
                 String msg = "Could not reach Paxos consensus while running your operation.";
                 return Result.failure(msg);
             } else if (response.equals(ConsensusResponse.CONSENSUS_PREEMPTED)) {
                 Logger.logInfo("Paxos: Consensus Preempted i.e. received ACCEPTED proposal during PREPARE phase");
+                peerMetrics.preemptions.increment();
                 paxosProposal.operation = response.acceptedPaxosProposal.operation;
+                paxosProposal.serializedSize = Metrics.serializedSize(paxosProposal);
             }
         }
+        peerMetrics.roundLatency.recordSince(roundStart);
+        groupMetrics.roundLatency.recordSince(roundStart);
+        finishTrace(paxosProposal, roundStart, roundStartMicros, "OK", false);
 
         // Grab a result from a consensus agreeing response to return to client
         return responses.stream()
-                .filter(r -> r.status == PaxosResponse.Status.OK)
-                .findFirst().get().learnResult;
+                .filter(r -> r != null && r.status == PaxosResponse.Status.OK)
+                .findFirst().<Result<?>>map(r -> r.learnResult)
+                .orElse(Result.success("Chosen, but not learned by any participant yet"));
+    }
+
+    /**
+     * Records the span of the whole round and writes out the trace if it was sampled or slow.
+     */
+    private void finishTrace(PaxosProposal paxosProposal, long roundStart, long roundStartMicros, String status,
+                             boolean sample) {
+        long nanos = System.nanoTime() - roundStart;
+        tracer.record(paxosProposal.traceId, "round", null, roundStartMicros, 0, nanos / 1000, status);
+        tracer.finish(paxosProposal.traceId, sample || paxosProposal.sampled || Tracer.isSlow(nanos));
     }
 
     /**
      * Represents the possible situations that may be observed
      * while calculating if consensus was reached.
      */
-    private enum ConsensusResponse {
+    enum ConsensusResponse {
         CONSENSUS_REACHED, CONSENSUS_NOT_REACHED,
 
         /**
@@ -103,13 +210,14 @@ public class PaxosEngine {
 
     /**
      * Determines if a consensus is reached from the collected responses.
+     * Package-private so that it can be benchmarked on its own.
      *
-     * @param responses    - responses from participants
-     * @param stage        - stage of the protocol
-     * @param participants - list of protocol participants
+     * @param responses        - responses from participants
+     * @param stage            - stage of the protocol
+     * @param participantCount - number of peers in the group, suspected or not
      * @return ConsensusResponse enum
      */
-    private ConsensusResponse isConsensus(List<PaxosResponse> responses, PaxosStage stage, List<PaxosParticipant> participants) {
+    ConsensusResponse isConsensus(List<PaxosResponse> responses, PaxosStage stage, int participantCount) {
         // If stage is PREPARE, we must check for any ACCEPTED responses
         // which indicate that the acceptors already accepted a proposal
         // with a higher ID. In that situation, we pick the proposal
@@ -127,8 +235,6 @@ public class PaxosEngine {
             }
         }
 
-        int participantCount = participants.size();
-
         // The expected status depends on the current stage
         PaxosResponse.Status expectedStatus;
         switch (stage) {
@@ -155,70 +261,157 @@ public class PaxosEngine {
 
         double consensusRatio = (double) positiveCounts / (double) participantCount;
         if (consensusRatio >= CONSENSUS_THRESHOLD) {
-            Logger.logError(String.format("Paxos %s: Consensus reached (consensus ratio=%.2f)", stage, consensusRatio));
+            Logger.logDebug("Paxos %s: Consensus reached (consensus ratio=%.2f)", stage, consensusRatio);
             return ConsensusResponse.CONSENSUS_REACHED;
         }
 
-        Logger.logError(String.format("Paxos %s: Consensus not reached (consensus ratio=%.2f)", stage, consensusRatio));
+        Logger.logError("Paxos %s: Consensus not reached (consensus ratio=%.2f)", stage, consensusRatio);
         return ConsensusResponse.CONSENSUS_NOT_REACHED;
     }
 
     /**
      * Dispatch the proposal to all participants by making concurrent
-     * RMI calls.
+     * RMI calls. Every response counts as a heartbeat of its participant.
      *
      * @param paxosProposal - proposal used in the protocol
      * @param stage         - stage currently being executed
-     * @param participants  - list of protocol participants
-     * @return responses from the participants
+     * @param participants  - addresses of the protocol participants
+     * @param stubs         - participants looked up so far in this round
+     * @return responses from the participants that answered in time
      */
-    private List<PaxosResponse> dispatch(PaxosProposal paxosProposal, PaxosStage stage, List<PaxosParticipant> participants) {
+    private List<PaxosResponse> dispatch(PaxosProposal paxosProposal, PaxosStage stage,
+                                         List<InetSocketAddress> participants,
+                                         Map<InetSocketAddress, PaxosParticipant> stubs) {
         CompletionService<PaxosResponse> service = new ExecutorCompletionService<>(executorService);
+        List<Future<PaxosResponse>> futures = new ArrayList<>();
+        long stageStart = System.nanoTime();
+        long sentAtMicros = paxosProposal.sentAtMicros;
 
-        for (PaxosParticipant participant : participants) {
-            switch (stage) {
-                case PREPARE:
-                    service.submit(() -> participant.prepare(paxosProposal));
-                    break;
-                case ACCEPT:
-                    service.submit(() -> participant.accept(paxosProposal));
-                    break;
-                case LEARN:
-                    service.submit(() -> participant.learn(paxosProposal));
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unknown stage of Paxos: " + stage);
-            }
+        for (InetSocketAddress address : participants) {
+            futures.add(service.submit(() -> {
+                RemotePeerMetrics remoteMetrics = metrics.remote(address);
+                String remote = address.getHostString() + ":" + address.getPort();
+                long callStart = 0;
+                PaxosResponse response;
+                try {
+                    // Looked up here rather than up front, since a lookup on a hanging peer has no timeout
+                    PaxosParticipant participant = stubs.get(address);
+                    if (participant == null) {
+                        participant = locator.locate(address);
+                        stubs.put(address, participant);
+                    }
+
+                    callStart = System.nanoTime();
+                    switch (stage) {
+                        case PREPARE:
+                            response = participant.prepare(paxosProposal);
+                            break;
+                        case ACCEPT:
+                            response = participant.accept(paxosProposal);
+                            break;
+                        case LEARN:
+                            response = participant.learn(paxosProposal);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown stage of Paxos: " + stage);
+                    }
+                } catch (RemoteException | NotBoundException e) {
+                    remoteMetrics.failures.increment();
+                    locator.forget(address);
+                    traceCall(paxosProposal.traceId, stage, remote, sentAtMicros, stageStart, callStart, "FAILED: " + e.getClass().getSimpleName());
+                    throw e;
+                }
+                remoteMetrics.rpcLatency.recordSince(callStart);
+                traceCall(paxosProposal.traceId, stage, remote, sentAtMicros, stageStart, callStart, response.status.name());
+                failureDetector.heartbeat(address);
+                return response;
+            }));
         }
 
+        // A single deadline for the whole stage, so that silent peers are not waited on one after another
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STAGE_TIMEOUT_MS);
         List<PaxosResponse> responses = new ArrayList<>();
-        for (PaxosParticipant participant : participants) {
+        for (int i = 0; i < futures.size(); i++) {
             try {
-                Future<PaxosResponse> future = service.take();
-                responses.add(future.get(1, TimeUnit.SECONDS));
-            } catch (InterruptedException | ExecutionException | TimeoutException e) {
-                e.printStackTrace();
-                Logger.logError(String.format("Paxos %s: Participant timed out", stage));
+                Future<PaxosResponse> future = service.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (future == null) {
+                    Logger.logError("Paxos %s: %d participant(s) timed out", stage, futures.size() - i);
+                    for (int j = 0; j < futures.size(); j++) {
+                        if (!futures.get(j).isDone()) {
+                            InetSocketAddress address = participants.get(j);
+                            metrics.remote(address).timeouts.increment();
+                            tracer.record(paxosProposal.traceId, stage + " call", address.getHostString() + ":" + address.getPort(),
+                                    sentAtMicros, 0, (System.nanoTime() - stageStart) / 1000, "TIMEOUT");
+                        }
+                    }
+                    break;
+                }
+                PaxosResponse response = future.get();
+                if (response != null && response.status == REJECTED) {
+                    metrics.peer().rejects.increment();
+                }
+                responses.add(response);
+            } catch (ExecutionException e) {
+                Logger.logError("Paxos %s: Participant failed: %s", stage, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
         }
 
+        for (Future<PaxosResponse> future : futures) {
+            future.cancel(true);
+        }
         return responses;
     }
 
-    private static List<PaxosParticipant> connectToPeers(Group group) throws NotBoundException, RemoteException {
-        List<PaxosParticipant> participants = new ArrayList<>();
+    /**
+     * Records the span of a call to a participant. The time spent before the call,
+     * waiting for a thread and looking up the participant, counts as queue time.
+     */
+    private void traceCall(long traceId, PaxosStage stage, String remote, long sentAtMicros, long stageStart,
+                           long callStart, String status) {
+        long now = System.nanoTime();
+        long started = callStart == 0 ? now : callStart;
+        tracer.record(traceId, stage + " call", remote, sentAtMicros,
+                (started - stageStart) / 1000, (now - started) / 1000, status);
+    }
+
+    /**
+     * Returns the histogram recording the latency of the given stage.
+     */
+    private LatencyHistogram stageLatency(PaxosStage stage) {
+        switch (stage) {
+            case PREPARE:
+                return metrics.peer().prepareLatency;
+            case ACCEPT:
+                return metrics.peer().acceptLatency;
+            default:
+                return metrics.peer().learnLatency;
+        }
+    }
 
-        for (InetSocketAddress address : group.peerAddresses) {
-            try {
-                String url = String.format("rmi://%s:%d/DistributedChatPeer", address.getHostString(), address.getPort());
-                PaxosParticipant participant = (PaxosParticipant) Naming.lookup(url);
-                participants.add(participant);
-            } catch (MalformedURLException e) {
-                e.printStackTrace();
-                Logger.logError(e.getMessage());
+    /**
+     * Returns the given peers that are not suspected to be down.
+     */
+    private List<InetSocketAddress> livePeers(List<InetSocketAddress> members) {
+        List<InetSocketAddress> live = new ArrayList<>();
+        for (InetSocketAddress address : members) {
+            if (failureDetector.isSuspected(address)) {
+                Logger.logInfo("Paxos: Skipping suspected peer %s", address);
+            } else {
+                live.add(address);
             }
         }
+        return live;
+    }
 
-        return participants;
+    private static PaxosParticipant lookup(InetSocketAddress address) throws NotBoundException, RemoteException {
+        try {
+            String url = String.format("rmi://%s:%d/DistributedChatPeer", address.getHostString(), address.getPort());
+            return (PaxosParticipant) Naming.lookup(url);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid peer address: " + address, e);
+        }
     }
 }
@@ -1,6 +1,7 @@
 package chat.backend.paxos;
 
 import chat.backend.Operation;
+import chat.backend.trace.Tracer;
 
 import java.io.Serializable;
 import java.util.Objects;
@@ -9,6 +10,8 @@ import java.util.Objects;
  * Represents a proposal in the Paxos algorithm.
  */
 public class PaxosProposal implements Serializable {
+	private static final long serialVersionUID = -7379978063455855702L;
+
 	/**
 	 * Unique identifier for the proposal.
 	 */
@@ -19,6 +22,27 @@ public class PaxosProposal implements Serializable {
 	 */
 	public Operation<?> operation;
 
+	/**
+	 * Identifier of the trace that the spans of this proposal are recorded under, on every peer.
+	 */
+	public final long traceId;
+
+	/**
+	 * Whether the participants should write out the spans of this proposal once they learn it.
+	 */
+	public boolean sampled;
+
+	/**
+	 * When the proposer sent the current stage, in microseconds since the epoch.
+	 */
+	public long sentAtMicros;
+
+	/**
+	 * How many bytes the proposal takes on the wire, measured once by the proposer, so
+	 * that the participants can count the bytes they receive without serializing it again.
+	 */
+	public long serializedSize;
+
 	/**
 	 * Creates a new PaxosProposal object with a unique identifier and the given operation.
 	 *
@@ -27,6 +51,7 @@ public class PaxosProposal implements Serializable {
 	public PaxosProposal(Operation<?> operation) {
 		this.id = System.currentTimeMillis();
 		this.operation = operation;
+		this.traceId = Tracer.newTraceId();
 	}
 
 	@Override
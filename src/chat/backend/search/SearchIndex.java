@@ -0,0 +1,463 @@
+package chat.backend.search;
+
+import chat.backend.Message;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Inverted index over the history of a single group.
+ * <p>
+ * Every word maps to the ascending positions of the messages containing it. Words
+ * are kept sorted so that a prefix query is a range of the map. The timestamp and
+ * sender of every message are kept in columns, so that filters never need to read
+ * the history. The index is append-only like the history and catches up with it
+ * by indexing the messages it has not seen yet.
+ */
+public class SearchIndex {
+
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Words longer than this are cut, so that pasted blobs do not bloat the index.
+     */
+    private static final int MAX_WORD_LENGTH = 64;
+
+    private final Path file;
+
+    private final TreeMap<String, Postings> words = new TreeMap<>();
+
+    private final List<String> senderNames = new ArrayList<>();
+    private final Map<String, Integer> senderIds = new HashMap<>();
+
+    // Indexed by message position
+    private long[] timestamps = new long[1024];
+    private int[] senders = new int[1024];
+
+    /**
+     * Number of messages indexed so far.
+     */
+    private int count;
+
+    /**
+     * Whether the index changed since it was last saved.
+     */
+    private boolean dirty;
+
+    /**
+     * Creates an empty index that is saved to the given file.
+     *
+     * @param file the file holding the saved index
+     */
+    SearchIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the index saved in the given file. Returns an empty index if the file
+     * is missing or unreadable, in which case it is rebuilt on the next catch up.
+     *
+     * @param file the file holding the saved index
+     * @return the loaded index
+     */
+    static SearchIndex load(Path file) {
+        SearchIndex index = new SearchIndex(file);
+        if (!Files.exists(file)) {
+            return index;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            index.read(in);
+        } catch (IOException | RuntimeException e) {
+            index = new SearchIndex(file);
+            index.dirty = true;
+        }
+        return index;
+    }
+
+    /**
+     * Indexes the messages of the history that are not indexed yet. Starts over if
+     * the history is shorter than the index, since it was then rewritten.
+     *
+     * @param history the history of the group
+     */
+    synchronized void catchUp(List<Message> history) {
+        if (history.size() < count) {
+            clear();
+        }
+        for (int i = count; i < history.size(); i++) {
+            add(history.get(i));
+        }
+    }
+
+    /**
+     * Drops everything from the index.
+     */
+    synchronized void clear() {
+        words.clear();
+        senderNames.clear();
+        senderIds.clear();
+        count = 0;
+        dirty = true;
+    }
+
+    /**
+     * Finds the messages matching a query, newest first, starting before the given cursor.
+     *
+     * @param query    the query to run
+     * @param cursor   the cursor returned with the previous page, or {@link SearchPage#FIRST_PAGE}
+     * @param pageSize the maximum number of messages to return
+     * @param history  the history of the group the index covers
+     * @return the page of results
+     */
+    synchronized SearchPage search(SearchQuery query, int cursor, int pageSize, List<Message> history) {
+        if (pageSize <= 0) {
+            return SearchPage.EMPTY;
+        }
+
+        int end = cursor < 0 || cursor > count ? count : cursor;
+        end = Math.min(end, history.size());
+
+        int sender = -1;
+        if (query.sender != null) {
+            Integer id = senderIds.get(query.sender);
+            if (id == null) {
+                return SearchPage.EMPTY;
+            }
+            sender = id;
+        }
+
+        // Intersect the postings of all words, driven by the one matching the fewest messages
+        List<WordMatch> matches = new ArrayList<>();
+        for (String word : tokenize(query.text, true)) {
+            WordMatch match = word.endsWith("*") ? prefixMatch(word.substring(0, word.length() - 1)) : exactMatch(word);
+            if (match.size == 0) {
+                return SearchPage.EMPTY;
+            }
+            matches.add(match);
+        }
+        matches.sort(Comparator.comparingInt(m -> m.size));
+
+        List<Message> messages = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        PrimitiveIterator.OfInt candidates = matches.isEmpty()
+                ? new Range(end)
+                : matches.get(0).descendingFrom(end);
+        while (candidates.hasNext() && messages.size() < pageSize) {
+            int position = candidates.nextInt();
+            if (matches(position, matches, sender, query)) {
+                messages.add(history.get(position));
+                positions.add(position);
+            }
+        }
+
+        int nextCursor = candidates.hasNext() ? positions.get(positions.size() - 1) : -1;
+        return new SearchPage(messages, positions, nextCursor);
+    }
+
+    /**
+     * Writes the index to its file if it changed since it was last saved.
+     *
+     * @throws IOException if the index could not be written
+     */
+    synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            write(out);
+        }
+        Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    /**
+     * Deletes the saved index.
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private boolean matches(int position, List<WordMatch> matches, int sender, SearchQuery query) {
+        if (sender >= 0 && senders[position] != sender) {
+            return false;
+        }
+        if (timestamps[position] < query.fromTime || timestamps[position] >= query.toTime) {
+            return false;
+        }
+        for (int j = 1; j < matches.size(); j++) {
+            if (!matches.get(j).contains(position)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private WordMatch exactMatch(String word) {
+        Postings postings = words.get(word);
+        return new WordMatch(postings == null ? Collections.emptyList() : Collections.singletonList(postings));
+    }
+
+    private WordMatch prefixMatch(String prefix) {
+        return new WordMatch(new ArrayList<>(words.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()));
+    }
+
+    private void add(Message message) {
+        if (count == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, count * 2);
+            senders = Arrays.copyOf(senders, count * 2);
+        }
+        timestamps[count] = message.getTimestamp();
+        senders[count] = senderId(message.getFrom());
+
+        for (String word : new HashSet<>(tokenize(message.getContents(), false))) {
+            words.computeIfAbsent(word, w -> new Postings()).add(count);
+        }
+
+        count++;
+        dirty = true;
+    }
+
+    private int senderId(String name) {
+        Integer id = senderIds.get(name);
+        if (id == null) {
+            id = senderNames.size();
+            senderNames.add(name);
+            senderIds.put(name, id);
+        }
+        return id;
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(count);
+
+        out.writeInt(senderNames.size());
+        for (String name : senderNames) {
+            out.writeUTF(name);
+        }
+        for (int i = 0; i < count; i++) {
+            out.writeLong(timestamps[i]);
+            out.writeInt(senders[i]);
+        }
+
+        out.writeInt(words.size());
+        for (Map.Entry<String, Postings> entry : words.entrySet()) {
+            Postings postings = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeInt(postings.size);
+            for (int i = 0; i < postings.size; i++) {
+                out.writeInt(postings.positions[i]);
+            }
+        }
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unknown search index format");
+        }
+        int messages = in.readInt();
+
+        int senderCount = in.readInt();
+        for (int i = 0; i < senderCount; i++) {
+            senderId(in.readUTF());
+        }
+        timestamps = new long[Math.max(messages, 1024)];
+        senders = new int[Math.max(messages, 1024)];
+        for (int i = 0; i < messages; i++) {
+            timestamps[i] = in.readLong();
+            senders[i] = in.readInt();
+        }
+
+        int wordCount = in.readInt();
+        for (int i = 0; i < wordCount; i++) {
+            String word = in.readUTF();
+            Postings postings = new Postings();
+            int size = in.readInt();
+            for (int j = 0; j < size; j++) {
+                postings.add(in.readInt());
+            }
+            words.put(word, postings);
+        }
+
+        count = messages;
+    }
+
+    /**
+     * Splits text into lowercase words. If prefixes are allowed, a trailing {@code *}
+     * is kept to mark a prefix.
+     */
+    static List<String> tokenize(String text, boolean prefixes) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (word.length() < MAX_WORD_LENGTH) {
+                    word.append(Character.toLowerCase(c));
+                }
+            } else {
+                if (prefixes && c == '*' && word.length() > 0) {
+                    word.append('*');
+                }
+                if (word.length() > 0) {
+                    tokens.add(word.toString());
+                    word.setLength(0);
+                }
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * The postings of all words matching one word of a query.
+     */
+    private static class WordMatch {
+        private final List<Postings> postings;
+        private final int size;
+
+        /**
+         * All postings merged, built on the first membership test.
+         */
+        private Postings merged;
+
+        private WordMatch(List<Postings> postings) {
+            this.postings = postings;
+            this.size = postings.stream().mapToInt(p -> p.size).sum();
+        }
+
+        private boolean contains(int position) {
+            if (postings.size() == 1) {
+                return postings.get(0).contains(position);
+            }
+            if (merged == null) {
+                merged = merge();
+            }
+            return merged.contains(position);
+        }
+
+        /**
+         * Iterates over the positions lower than the given one, highest first and without
+         * duplicates, merging the postings lazily so that a page only touches what it returns.
+         */
+        private PrimitiveIterator.OfInt descendingFrom(int end) {
+            // Heads of the postings as {postings index, position index}, highest position first
+            PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, postings.size()),
+                    (a, b) -> Integer.compare(positionOf(b), positionOf(a)));
+            for (int i = 0; i < postings.size(); i++) {
+                int index = postings.get(i).indexBefore(end);
+                if (index >= 0) {
+                    heads.add(new int[]{i, index});
+                }
+            }
+
+            return new PrimitiveIterator.OfInt() {
+                private int last = -1;
+
+                @Override
+                public boolean hasNext() {
+                    while (!heads.isEmpty() && positionOf(heads.peek()) == last) {
+                        advance();
+                    }
+                    return !heads.isEmpty();
+                }
+
+                @Override
+                public int nextInt() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    last = positionOf(heads.peek());
+                    advance();
+                    return last;
+                }
+
+                private void advance() {
+                    int[] head = heads.poll();
+                    if (--head[1] >= 0) {
+                        heads.add(head);
+                    }
+                }
+            };
+        }
+
+        private int positionOf(int[] head) {
+            return postings.get(head[0]).positions[head[1]];
+        }
+
+        private Postings merge() {
+            Postings result = new Postings();
+            PrimitiveIterator.OfInt iterator = descendingFrom(Integer.MAX_VALUE);
+            while (iterator.hasNext()) {
+                result.add(iterator.nextInt());
+            }
+            // Collected highest first
+            for (int i = 0, j = result.size - 1; i < j; i++, j--) {
+                int swap = result.positions[i];
+                result.positions[i] = result.positions[j];
+                result.positions[j] = swap;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Iterates over all positions lower than the given one, highest first.
+     */
+    private static class Range implements PrimitiveIterator.OfInt {
+        private int next;
+
+        private Range(int end) {
+            this.next = end - 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next >= 0;
+        }
+
+        @Override
+        public int nextInt() {
+            if (next < 0) {
+                throw new NoSuchElementException();
+            }
+            return next--;
+        }
+    }
+
+    /**
+     * Growable, ascending list of message positions.
+     */
+    private static class Postings {
+        private int[] positions = new int[4];
+        private int size;
+
+        private void add(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        private boolean contains(int position) {
+            return Arrays.binarySearch(positions, 0, size, position) >= 0;
+        }
+
+        /**
+         * Returns the index of the last position lower than the given one, or -1.
+         */
+        private int indexBefore(int position) {
+            int index = Arrays.binarySearch(positions, 0, size, position);
+            return (index >= 0 ? index : -index - 1) - 1;
+        }
+    }
+}
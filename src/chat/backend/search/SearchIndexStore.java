@@ -0,0 +1,134 @@
+package chat.backend.search;
+
+import chat.backend.Group;
+import chat.backend.GroupMode;
+import chat.backend.Message;
+import chat.backend.history.HistoryStore;
+import chat.logging.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the search indexes of all groups of a peer, each one stored next to the
+ * history it covers.
+ * <p>
+ * An index is only loaded by the first search in its group, and then caught up
+ * with the messages added since it was saved. From then on it is kept up to date
+ * as messages are added.
+ */
+public class SearchIndexStore {
+
+    private static final String INDEX_FILE = "search.idx";
+
+    private final HistoryStore historyStore;
+
+    /**
+     * Indexes that have been loaded so far, keyed by group name.
+     */
+    private final Map<String, SearchIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a store that keeps the indexes in the directories of the given history store.
+     *
+     * @param historyStore the store holding the histories of the groups
+     */
+    public SearchIndexStore(HistoryStore historyStore) {
+        this.historyStore = historyStore;
+    }
+
+    /**
+     * Runs a search over the history of a group.
+     *
+     * @param group    the group to search
+     * @param query    the query to run
+     * @param cursor   the cursor returned with the previous page, or {@link SearchPage#FIRST_PAGE}
+     * @param pageSize the maximum number of messages to return
+     * @return the page of results
+     */
+    public SearchPage search(Group group, SearchQuery query, int cursor, int pageSize) {
+        SearchIndex index = indexes.computeIfAbsent(group.name,
+                name -> SearchIndex.load(historyStore.directoryOf(name).resolve(INDEX_FILE)));
+
+        // Indexed in the order the messages were received, which only ever grows at the end
+        List<Message> history = group.history.snapshot();
+        index.catchUp(history);
+        if (group.mode != GroupMode.CRDT) {
+            return index.search(query, cursor, pageSize, history);
+        }
+        return inCausalOrder(group, index.search(query, SearchPage.FIRST_PAGE, Integer.MAX_VALUE, history),
+                cursor, pageSize);
+    }
+
+    /**
+     * Pages through all results of a search in a CRDT group in causal order, newest first,
+     * so that every peer holding the same messages returns the same pages. The cursor is
+     * a sequence number in that order, like the positions of the results.
+     */
+    private static SearchPage inCausalOrder(Group group, SearchPage all, int cursor, int pageSize) {
+        List<int[]> hits = new ArrayList<>();
+        for (int i = 0; i < all.positions.size(); i++) {
+            int sequence = (int) group.sequenceOf(all.positions.get(i));
+            if (cursor < 0 || sequence < cursor) {
+                hits.add(new int[]{sequence, i});
+            }
+        }
+        hits.sort(Comparator.comparingInt((int[] hit) -> hit[0]).reversed());
+
+        List<Message> messages = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int[] hit : hits.subList(0, Math.min(pageSize, hits.size()))) {
+            messages.add(all.messages.get(hit[1]));
+            positions.add(hit[0]);
+        }
+        int nextCursor = hits.size() > pageSize ? positions.get(positions.size() - 1) : -1;
+        return new SearchPage(messages, positions, nextCursor);
+    }
+
+    /**
+     * Indexes the messages added to a group, if its index is loaded.
+     *
+     * @param group the group that changed
+     */
+    public void update(Group group) {
+        SearchIndex index = indexes.get(group.name);
+        if (index != null) {
+            index.catchUp(group.history.snapshot());
+        }
+    }
+
+    /**
+     * Drops the index of a group whose history was replaced, so that it is rebuilt
+     * on the next search.
+     *
+     * @param groupName the name of the group
+     */
+    public void invalidate(String groupName) {
+        SearchIndex index = indexes.remove(groupName);
+        try {
+            if (index == null) {
+                index = new SearchIndex(historyStore.directoryOf(groupName).resolve(INDEX_FILE));
+            }
+            index.delete();
+        } catch (IOException e) {
+            Logger.logError("Could not delete search index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes all loaded indexes that changed to disk.
+     */
+    public void save() {
+        for (SearchIndex index : indexes.values()) {
+            try {
+                index.save();
+            } catch (IOException e) {
+                Logger.logError("Could not save search index: " + e.getMessage());
+            }
+        }
+    }
+}
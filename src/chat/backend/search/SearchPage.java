@@ -0,0 +1,63 @@
+package chat.backend.search;
+
+import chat.backend.Message;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of search results, newest messages first.
+ */
+public class SearchPage implements Serializable {
+
+	private static final long serialVersionUID = -2213696812479305277L;
+
+	/**
+	 * Cursor that starts a search from the newest message.
+	 */
+	public static final int FIRST_PAGE = -1;
+
+	/**
+	 * Page without results and without a next page.
+	 */
+	public static final SearchPage EMPTY = new SearchPage(Collections.emptyList(), Collections.emptyList(), -1);
+
+	/**
+	 * The matching messages.
+	 */
+	public final List<Message> messages;
+
+	/**
+	 * The positions of the matching messages in the group history, which are their
+	 * sequence numbers as read by {@code readHistory}.
+	 */
+	public final List<Integer> positions;
+
+	/**
+	 * The cursor to pass to get the next page, or -1 if there are no more results.
+	 */
+	public final int nextCursor;
+
+	/**
+	 * Creates a page of search results.
+	 *
+	 * @param messages   the matching messages
+	 * @param positions  the positions of the messages in the group history
+	 * @param nextCursor the cursor of the next page, or -1 if there is none
+	 */
+	public SearchPage(List<Message> messages, List<Integer> positions, int nextCursor) {
+		this.messages = messages;
+		this.positions = positions;
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 * Returns whether there are more results after this page.
+	 *
+	 * @return true if there is a next page
+	 */
+	public boolean hasNext() {
+		return nextCursor >= 0;
+	}
+}
@@ -0,0 +1,60 @@
+package chat.backend.search;
+
+import java.io.Serializable;
+
+/**
+ * A search over the history of a group.
+ * <p>
+ * The text is split into words that must all appear in a message. A word ending
+ * with {@code *} matches every word starting with it. Words are matched without
+ * regard to case.
+ */
+public class SearchQuery implements Serializable {
+
+	private static final long serialVersionUID = 2547720985915292997L;
+
+	/**
+	 * The words to look for.
+	 */
+	public final String text;
+
+	/**
+	 * The sender that messages must come from, or null for any sender.
+	 */
+	public final String sender;
+
+	/**
+	 * The earliest timestamp of matching messages, inclusive.
+	 */
+	public final long fromTime;
+
+	/**
+	 * The latest timestamp of matching messages, exclusive.
+	 */
+	public final long toTime;
+
+	/**
+	 * Creates a query for messages containing the given words, from any sender and time.
+	 *
+	 * @param text the words to look for
+	 */
+	public SearchQuery(String text) {
+		this(text, null, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a query for messages containing the given words, sent by the given
+	 * sender within the given time range.
+	 *
+	 * @param text     the words to look for, may be empty to match every message
+	 * @param sender   the sender of the messages, or null for any sender
+	 * @param fromTime the earliest timestamp, inclusive
+	 * @param toTime   the latest timestamp, exclusive
+	 */
+	public SearchQuery(String text, String sender, long fromTime, long toTime) {
+		this.text = text == null ? "" : text;
+		this.sender = sender;
+		this.fromTime = fromTime;
+		this.toTime = toTime;
+	}
+}
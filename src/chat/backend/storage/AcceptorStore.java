@@ -0,0 +1,141 @@
+package chat.backend.storage;
+
+import chat.backend.paxos.PaxosProposal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Durable storage for the state of a Paxos acceptor, so that promises
+ * and accepted proposals survive a restart.
+ * <p>
+ * Every change is appended to a write-ahead log, which lets concurrent
+ * prepare and accept requests share a single fsync. Each state carries a
+ * version and the highest version wins on load, since concurrent appends
+ * may reach the log out of order.
+ */
+public class AcceptorStore implements Closeable {
+
+    /**
+     * Number of saves after which the log is compacted down to the latest state.
+     */
+    private static final int COMPACTION_INTERVAL = 10_000;
+
+    private final WriteAheadLog log;
+
+    private final AtomicInteger savesSinceCompaction = new AtomicInteger();
+
+    // Guarded by this
+    private State latest;
+
+    /**
+     * Opens the store in the given directory.
+     *
+     * @param directory directory holding the log segments
+     * @param durable   whether saves are fsynced before returning
+     * @throws IOException if the log could not be opened
+     */
+    public AcceptorStore(Path directory, boolean durable) throws IOException {
+        this.log = new WriteAheadLog(directory, durable);
+    }
+
+    /**
+     * Loads the most recently saved state and compacts the log.
+     *
+     * @return the latest state, or null if none was ever saved
+     * @throws IOException if the log could not be read
+     */
+    public State load() throws IOException {
+        for (Object record : log.replay(0)) {
+            remember((State) record);
+        }
+        compact();
+
+        synchronized (this) {
+            return latest;
+        }
+    }
+
+    /**
+     * Saves a new state. Returns once it is on disk.
+     *
+     * @param state the state to save
+     * @throws IOException if the state could not be written
+     */
+    public void save(State state) throws IOException {
+        // Remember before appending so that a concurrent compaction never drops this state
+        remember(state);
+        log.append(state);
+
+        if (savesSinceCompaction.incrementAndGet() >= COMPACTION_INTERVAL) {
+            savesSinceCompaction.set(0);
+            compact();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    private synchronized void remember(State state) {
+        if (latest == null || state.version > latest.version) {
+            latest = state;
+        }
+    }
+
+    /**
+     * Starts a new segment holding only the latest state and deletes the older ones.
+     */
+    private void compact() throws IOException {
+        long segment = log.rollOver();
+
+        State snapshot;
+        synchronized (this) {
+            snapshot = latest;
+        }
+        if (snapshot != null) {
+            log.append(snapshot);
+        }
+
+        log.deleteSegmentsBefore(segment);
+    }
+
+    /**
+     * State of an acceptor at a point in time.
+     */
+    public static class State implements Serializable {
+        private static final long serialVersionUID = -1369291739614429170L;
+
+        /**
+         * Increases with every change made by the acceptor.
+         */
+        public final long version;
+
+        /**
+         * Highest proposal ID the acceptor has promised.
+         */
+        public final long promisedID;
+
+        /**
+         * Proposal accepted but not yet learned, if any.
+         */
+        public final PaxosProposal accepted;
+
+        /**
+         * Creates a new acceptor state.
+         *
+         * @param version    version of the state
+         * @param promisedID highest promised proposal ID
+         * @param accepted   accepted proposal, or null
+         */
+        public State(long version, long promisedID, PaxosProposal accepted) {
+            this.version = version;
+            this.promisedID = promisedID;
+            this.accepted = accepted;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package chat.backend.storage;
+
+import chat.logging.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only, segmented write-ahead log of serializable records.
+ * <p>
+ * Every record is framed as {@code [length][crc32][payload]} so that torn or corrupted
+ * writes are detected on replay. Appends are made durable with group commit: callers
+ * that arrive while another caller is waiting on {@code fsync} are covered by the
+ * next {@code fsync} instead of issuing one each.
+ */
+public class WriteAheadLog implements Closeable {
+
+    /**
+     * Size after which the log moves on to a new segment file.
+     */
+    private static final long SEGMENT_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * Upper bound on a single record, used to reject garbage lengths on replay.
+     */
+    private static final int MAX_RECORD_SIZE = 512 * 1024 * 1024;
+
+    private static final String SEGMENT_FORMAT = "segment-%016d.log";
+
+    private final Path directory;
+
+    /**
+     * Whether appends are fsynced before returning.
+     */
+    private final boolean durable;
+
+    /**
+     * Serializes fsyncs; held before the monitor of this object, never after.
+     */
+    private final Object syncLock = new Object();
+
+    // Guarded by this
+    private FileChannel channel;
+    private long segmentIndex;
+    private long segmentBytes;
+    private long bytesSinceRollOver;
+    private long writtenSeq;
+
+    // Guarded by syncLock
+    private long syncedSeq;
+
+    /**
+     * Opens the log in the given directory. Existing segments are left untouched
+     * and new records always go to a fresh segment.
+     *
+     * @param directory directory holding the segment files
+     * @param durable   whether appends are fsynced before returning
+     * @throws IOException if the directory or the first segment could not be created
+     */
+    public WriteAheadLog(Path directory, boolean durable) throws IOException {
+        this.directory = directory;
+        this.durable = durable;
+
+        Files.createDirectories(directory);
+        List<Long> segments = listSegments();
+        this.segmentIndex = segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1;
+        this.channel = openSegment(segmentIndex);
+    }
+
+    /**
+     * Appends a record to the log. Returns once the record is written and,
+     * if the log is durable, fsynced along with any concurrently appended records.
+     *
+     * @param record the record to append
+     * @throws IOException if the record could not be written
+     */
+    public void append(Serializable record) throws IOException {
+        sync(write(record));
+    }
+
+    /**
+     * Writes a record to the log without waiting for it to reach the disk. This lets
+     * callers fix the order of their records while sharing the fsync that follows.
+     *
+     * @param record the record to write
+     * @return the sequence number to pass to {@link #sync(long)}
+     * @throws IOException if the record could not be written
+     */
+    public long write(Serializable record) throws IOException {
+        ByteBuffer frame = encode(record);
+
+        synchronized (this) {
+            if (segmentBytes >= SEGMENT_SIZE) {
+                roll();
+            }
+            int length = frame.remaining();
+            while (frame.hasRemaining()) {
+                segmentBytes += channel.write(frame);
+            }
+            bytesSinceRollOver += length;
+            return ++writtenSeq;
+        }
+    }
+
+    /**
+     * Makes sure that all records up to the given sequence number are on disk,
+     * if the log is durable.
+     *
+     * @param seq sequence number returned by {@link #write(Serializable)}
+     * @throws IOException if the log could not be fsynced
+     */
+    public void sync(long seq) throws IOException {
+        if (!durable) {
+            return;
+        }
+
+        synchronized (syncLock) {
+            if (syncedSeq >= seq) {
+                // Somebody else's fsync already covered this record
+                return;
+            }
+
+            long target;
+            FileChannel current;
+            synchronized (this) {
+                target = writtenSeq;
+                current = channel;
+            }
+
+            try {
+                current.force(false);
+            } catch (ClosedChannelException e) {
+                // The segment was rolled over, which forces it before closing
+            }
+            syncedSeq = target;
+        }
+    }
+
+    /**
+     * Closes the current segment and starts a new one. Every record appended after
+     * this call returns lives in a segment with an index at least the returned value.
+     *
+     * @return index of the new segment
+     * @throws IOException if the new segment could not be created
+     */
+    public synchronized long rollOver() throws IOException {
+        roll();
+        bytesSinceRollOver = 0;
+        return segmentIndex;
+    }
+
+    /**
+     * Returns how many bytes were written since the last {@link #rollOver()}, which is
+     * how much a replay from there would read.
+     *
+     * @return the number of bytes
+     */
+    public synchronized long bytesSinceRollOver() {
+        return bytesSinceRollOver;
+    }
+
+    /**
+     * Deletes all segments with an index lower than the given one.
+     *
+     * @param index index of the oldest segment to keep
+     */
+    public void deleteSegmentsBefore(long index) {
+        try {
+            for (long segment : listSegments()) {
+                if (segment < index) {
+                    Files.deleteIfExists(segmentPath(segment));
+                }
+            }
+        } catch (IOException e) {
+            Logger.logError("WAL: Could not delete old segments: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads back all records stored in segments starting at the given index.
+     * <p>
+     * Only the last segment with records may end in a torn record, which is what a crash
+     * in the middle of an append leaves behind, and that record is dropped. Segments
+     * opened by later starts that crashed before writing anything may follow it. Any other damaged record,
+     * including one that is intact but cannot be deserialized, fails the replay: the
+     * records after it would be applied on top of a gap. The segments are left as they
+     * are, so that they can be inspected or moved aside.
+     *
+     * @param fromIndex index of the first segment to replay
+     * @return the records in the order they were appended
+     * @throws IOException if a segment could not be read or holds a damaged record
+     */
+    public List<Object> replay(long fromIndex) throws IOException {
+        List<Long> segments = new ArrayList<>();
+        long lastWritten = -1;
+        for (long segment : listSegments()) {
+            if (segment >= fromIndex && segment != segmentIndex) {
+                segments.add(segment);
+                if (Files.size(segmentPath(segment)) > 0) {
+                    lastWritten = segment;
+                }
+            }
+        }
+
+        List<Object> records = new ArrayList<>();
+        for (long segment : segments) {
+            Path path = segmentPath(segment);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                Object record;
+                while ((record = readRecord(in)) != null) {
+                    records.add(record);
+                }
+            } catch (TornRecordException e) {
+                if (segment != lastWritten) {
+                    Logger.logError("WAL: Segment %d ends in a torn record, but later segments follow", segment);
+                    throw new IOException("Torn record in the middle of the write-ahead log at " + path);
+                }
+                Logger.logInfo("WAL: Dropping torn record at the end of segment %d", segment);
+            } catch (CorruptRecordException e) {
+                Logger.logError("WAL: Damaged record in segment %d: %s", segment, e.getMessage());
+                throw new IOException("Damaged record in the write-ahead log at " + path + ": " + e.getMessage());
+            }
+        }
+
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (durable) {
+                    channel.force(false);
+                }
+                channel.close();
+            }
+        }
+    }
+
+    // Must be called while holding the monitor of this object
+    private void roll() throws IOException {
+        if (durable) {
+            channel.force(false);
+        }
+        channel.close();
+        segmentIndex++;
+        segmentBytes = 0;
+        channel = openSegment(segmentIndex);
+    }
+
+    private FileChannel openSegment(long index) throws IOException {
+        return FileChannel.open(segmentPath(index), CREATE_NEW, WRITE);
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format(SEGMENT_FORMAT, index));
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.log")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                segments.add(Long.parseLong(name.substring("segment-".length(), name.length() - ".log".length())));
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private static ByteBuffer encode(Serializable record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+            stream.writeObject(record);
+        }
+        byte[] payload = bytes.toByteArray();
+        if (payload.length > MAX_RECORD_SIZE) {
+            throw new IOException("Record too large: " + payload.length + " bytes");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length);
+        frame.putInt((int) crc.getValue());
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Reads the next record, or returns null at the clean end of a segment.
+     */
+    private static Object readRecord(DataInputStream in) throws IOException, CorruptRecordException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+
+        try {
+            int length = (first << 24) | (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+            int checksum = in.readInt();
+            if (length < 0 || length > MAX_RECORD_SIZE) {
+                throw new CorruptRecordException("invalid record length " + length);
+            }
+
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                throw new CorruptRecordException("checksum mismatch");
+            }
+
+            try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+                return stream.readObject();
+            } catch (ClassNotFoundException | ObjectStreamException e) {
+                throw new CorruptRecordException("undecodable record: " + e);
+            }
+        } catch (EOFException e) {
+            throw new TornRecordException();
+        }
+    }
+
+    /**
+     * Thrown when a record fails validation during replay.
+     */
+    private static class CorruptRecordException extends Exception {
+        private CorruptRecordException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Thrown when a segment ends before its last record does.
+     */
+    private static class TornRecordException extends CorruptRecordException {
+        private TornRecordException() {
+            super("torn record at end of segment");
+        }
+    }
+}
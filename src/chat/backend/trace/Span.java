@@ -0,0 +1,75 @@
+package chat.backend.trace;
+
+/**
+ * A timed piece of work done by a peer on behalf of a traced operation.
+ * <p>
+ * Times are wall clock microseconds, so that spans recorded by different peers
+ * can be put on one timeline. The queue time is how long the work waited before
+ * it started, for example in the network and RMI or on the mailbox of a group.
+ */
+public class Span {
+
+	/**
+	 * The trace this span belongs to.
+	 */
+	public final long traceId;
+
+	/**
+	 * The peer that recorded the span.
+	 */
+	public final String peer;
+
+	/**
+	 * What was done, for example "PREPARE call" on the proposer or "prepare" on a participant.
+	 */
+	public final String name;
+
+	/**
+	 * The other peer involved, or null if the work was local.
+	 */
+	public final String remote;
+
+	/**
+	 * When the work started, in microseconds since the epoch.
+	 */
+	public final long startMicros;
+
+	/**
+	 * How long the work waited before it started, in microseconds.
+	 */
+	public final long queueMicros;
+
+	/**
+	 * How long the work took once started, in microseconds.
+	 */
+	public final long durationMicros;
+
+	/**
+	 * The outcome of the work.
+	 */
+	public final String status;
+
+	/**
+	 * Creates a span.
+	 *
+	 * @param traceId        the trace this span belongs to
+	 * @param peer           the peer that recorded the span
+	 * @param name           what was done
+	 * @param remote         the other peer involved, or null
+	 * @param startMicros    when the work started, in microseconds since the epoch
+	 * @param queueMicros    how long the work waited before it started
+	 * @param durationMicros how long the work took
+	 * @param status         the outcome of the work
+	 */
+	public Span(long traceId, String peer, String name, String remote, long startMicros, long queueMicros,
+				long durationMicros, String status) {
+		this.traceId = traceId;
+		this.peer = peer;
+		this.name = name;
+		this.remote = remote;
+		this.startMicros = startMicros;
+		this.queueMicros = queueMicros;
+		this.durationMicros = durationMicros;
+		this.status = status;
+	}
+}
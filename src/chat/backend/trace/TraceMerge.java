@@ -0,0 +1,59 @@
+package chat.backend.trace;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the trace files of several peers and prints every trace as one timeline.
+ * <p>
+ * Usage: {@code TraceMerge app_data/alice-5000/traces.jsonl app_data/bob-5001/traces.jsonl ...}
+ * <p>
+ * Each line shows when a span started relative to the start of its trace, the peer
+ * that recorded it, what was done and with which peer, and the queue and handler time.
+ * The offsets of different peers are only comparable if their clocks are in sync.
+ */
+public class TraceMerge {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: TraceMerge <trace file>...");
+            System.exit(1);
+        }
+
+        Map<Long, List<Span>> traces = new LinkedHashMap<>();
+        for (String arg : args) {
+            Path path = Paths.get(arg);
+            for (String line : Files.readAllLines(path)) {
+                Span span = Tracer.parse(line);
+                if (span != null) {
+                    traces.computeIfAbsent(span.traceId, id -> new ArrayList<>()).add(span);
+                }
+            }
+        }
+
+        List<List<Span>> ordered = new ArrayList<>(traces.values());
+        for (List<Span> spans : ordered) {
+            spans.sort(Comparator.comparingLong(span -> span.startMicros));
+        }
+        ordered.sort(Comparator.comparingLong(spans -> spans.get(0).startMicros));
+
+        for (List<Span> spans : ordered) {
+            long start = spans.get(0).startMicros;
+            long end = spans.stream().mapToLong(span -> span.startMicros + span.durationMicros).max().getAsLong();
+            System.out.printf("Trace %016x: %.3f ms, %d span(s)%n", spans.get(0).traceId, (end - start) / 1000.0, spans.size());
+            for (Span span : spans) {
+                System.out.printf("  +%9.3f ms  %-20s %-14s %-20s queue %8.3f ms  took %8.3f ms  %s%n",
+                        (span.startMicros - start) / 1000.0, span.peer, span.name,
+                        span.remote == null ? "" : "-> " + span.remote,
+                        span.queueMicros / 1000.0, span.durationMicros / 1000.0, span.status);
+            }
+        }
+    }
+}
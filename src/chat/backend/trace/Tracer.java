@@ -0,0 +1,302 @@
+package chat.backend.trace;
+
+import chat.logging.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * Records the spans of traced operations on a peer and writes the sampled
+ * traces to a file, one JSON object per line.
+ * <p>
+ * Spans are kept in memory per trace until the trace is finished, and only written
+ * if the trace was sampled. A trace is sampled either up front, at the configured
+ * rate, or because its round turned out to be slow. Since participants only learn
+ * whether a round is sampled when its LEARN stage reaches them, they keep the spans
+ * of recent rounds until then. The files of several peers can be merged with
+ * {@link TraceMerge}.
+ * <p>
+ * Sampling is configured through system properties:
+ * <ul>
+ *     <li>{@code chat.trace.slowMillis}: rounds taking at least this long are sampled (default 200)</li>
+ *     <li>{@code chat.trace.sampleRate}: fraction of the other rounds that are sampled (default 0)</li>
+ * </ul>
+ */
+public class Tracer {
+    private static final long SLOW_ROUND_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.trace.slowMillis", 200));
+    private static final double SAMPLE_RATE = Double.parseDouble(System.getProperty("chat.trace.sampleRate", "0"));
+
+    /**
+     * Number of unfinished traces kept, the oldest are dropped first.
+     */
+    private static final int MAX_PENDING_TRACES = 1024;
+
+    /**
+     * Trace of the operation the current thread works on, or 0 if none.
+     */
+    private static final ThreadLocal<Long> currentTrace = ThreadLocal.withInitial(() -> 0L);
+
+    private final String peer;
+    private final Path file;
+
+    /**
+     * Spans of unfinished traces, oldest trace first.
+     */
+    private final Map<Long, List<Span>> pending = new LinkedHashMap<Long, List<Span>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, List<Span>> eldest) {
+            return size() > MAX_PENDING_TRACES;
+        }
+    };
+
+    /**
+     * Writes sampled traces, so that the threads finishing them never wait for the disk.
+     */
+    private final ExecutorService writer;
+
+    /**
+     * Whether the writer belongs to this tracer, rather than being shared with other peers.
+     */
+    private final boolean ownsWriter;
+
+    /**
+     * Creates a tracer for the given peer, writing to the given file.
+     *
+     * @param peer the name of the peer, as recorded in its spans
+     * @param file the trace file, which is appended to
+     */
+    public Tracer(String peer, Path file) {
+        this(peer, file, Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "trace-writer");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * Creates a tracer for the given peer, writing to the given file on a writer
+     * shared with other peers, which closing the tracer leaves running.
+     *
+     * @param peer   the name of the peer, as recorded in its spans
+     * @param file   the trace file, which is appended to
+     * @param writer the thread writing the traces
+     */
+    public Tracer(String peer, Path file, ExecutorService writer) {
+        this(peer, file, writer, false);
+    }
+
+    private Tracer(String peer, Path file, ExecutorService writer, boolean ownsWriter) {
+        this.peer = peer;
+        this.file = file;
+        this.writer = writer;
+        this.ownsWriter = ownsWriter;
+    }
+
+    /**
+     * Returns a new trace ID.
+     *
+     * @return a random, non-zero ID
+     */
+    public static long newTraceId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * Returns the current time in microseconds since the epoch.
+     *
+     * @return the current time
+     */
+    public static long nowMicros() {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    }
+
+    /**
+     * Decides whether a new trace is sampled regardless of how long it takes.
+     *
+     * @return true if the trace is sampled
+     */
+    public static boolean sampleUpFront() {
+        return SAMPLE_RATE > 0 && ThreadLocalRandom.current().nextDouble() < SAMPLE_RATE;
+    }
+
+    /**
+     * Returns whether a round that took the given time is slow enough to be sampled.
+     *
+     * @param nanos the time taken so far
+     * @return true if the round is slow
+     */
+    public static boolean isSlow(long nanos) {
+        return nanos >= SLOW_ROUND_NANOS;
+    }
+
+    /**
+     * Sets the trace of the operation the current thread works on, so that the
+     * work it does further down can be recorded without passing the ID along.
+     *
+     * @param traceId the trace, or 0 to clear it
+     */
+    public static void setCurrent(long traceId) {
+        currentTrace.set(traceId);
+    }
+
+    /**
+     * Returns the trace of the operation the current thread works on.
+     *
+     * @return the trace, or 0 if none
+     */
+    public static long current() {
+        return currentTrace.get();
+    }
+
+    /**
+     * Returns the name of the peer, as recorded in its spans.
+     *
+     * @return the name of the peer
+     */
+    public String getPeer() {
+        return peer;
+    }
+
+    /**
+     * Records a span of an unfinished trace.
+     *
+     * @param traceId        the trace, ignored if 0
+     * @param name           what was done
+     * @param remote         the other peer involved, or null
+     * @param startMicros    when the work started, in microseconds since the epoch
+     * @param queueMicros    how long the work waited before it started
+     * @param durationMicros how long the work took
+     * @param status         the outcome of the work
+     */
+    public void record(long traceId, String name, String remote, long startMicros, long queueMicros,
+                       long durationMicros, String status) {
+        if (traceId == 0) {
+            return;
+        }
+
+        Span span = new Span(traceId, peer, name, remote, startMicros, Math.max(0, queueMicros), durationMicros, status);
+        synchronized (pending) {
+            pending.computeIfAbsent(traceId, id -> new ArrayList<>()).add(span);
+        }
+    }
+
+    /**
+     * Finishes a trace, writing its spans if it was sampled and dropping them otherwise.
+     *
+     * @param traceId the trace
+     * @param sampled whether the trace is written
+     */
+    public void finish(long traceId, boolean sampled) {
+        List<Span> spans;
+        synchronized (pending) {
+            spans = pending.remove(traceId);
+        }
+        if (spans == null || !sampled) {
+            return;
+        }
+
+        try {
+            writer.execute(() -> write(spans));
+        } catch (RejectedExecutionException e) {
+            // Finished after the tracer was closed
+        }
+    }
+
+    private void write(List<Span> spans) {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(file, CREATE, APPEND), StandardCharsets.UTF_8))) {
+            for (Span span : spans) {
+                out.write(format(span));
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            Logger.logError("Could not write trace: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the tracer once the traces finished so far are written.
+     * A shared writer is left running for the other peers.
+     */
+    public void close() {
+        if (!ownsWriter) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final Pattern FIELD = Pattern.compile("\"(\\w+)\":(\"((?:[^\"\\\\]|\\\\.)*)\"|-?\\d+|null)");
+
+    /**
+     * Returns the line of the trace file for the given span.
+     */
+    static String format(Span span) {
+        return String.format("{\"trace\":\"%016x\",\"peer\":%s,\"name\":%s,\"remote\":%s,\"start\":%d,\"queue\":%d,\"duration\":%d,\"status\":%s}",
+                span.traceId, quote(span.peer), quote(span.name), quote(span.remote), span.startMicros,
+                span.queueMicros, span.durationMicros, quote(span.status));
+    }
+
+    /**
+     * Parses a line of a trace file.
+     *
+     * @return the span, or null if the line is not a span
+     */
+    static Span parse(String line) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        Matcher matcher = FIELD.matcher(line);
+        while (matcher.find()) {
+            String value = matcher.group(3) != null ? unquote(matcher.group(3))
+                    : matcher.group(2).equals("null") ? null : matcher.group(2);
+            fields.put(matcher.group(1), value);
+        }
+
+        try {
+            return new Span(Long.parseUnsignedLong(fields.get("trace"), 16), fields.get("peer"), fields.get("name"),
+                    fields.get("remote"), Long.parseLong(fields.get("start")), Long.parseLong(fields.get("queue")),
+                    Long.parseLong(fields.get("duration")), fields.get("status"));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String unquote(String value) {
+        return value.replace("\\\"", "\"").replace("\\\\", "\\");
+    }
+}
@@ -0,0 +1,245 @@
+package chat.frontend.daemon;
+
+import chat.backend.ChatEngine;
+import chat.backend.Group;
+import chat.backend.GroupMode;
+import chat.backend.PeerHost;
+import chat.logging.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a peer without a user interface, for always-on peers on servers. It can also
+ * host many peer identities in one JVM, such as bots, which then share their threads,
+ * the stubs of other peers and the log file through a {@link PeerHost}.
+ * <p>
+ * Usage: {@code java chat.frontend.daemon.ChatDaemon <config file>}
+ * <p>
+ * The configuration is a properties file:
+ * <ul>
+ *     <li>{@code name}: the display name of the peer (required)</li>
+ *     <li>{@code port}: the port of the peer (required)</li>
+ *     <li>{@code count}: the number of identities to host (default 1). Identity {@code i} is named
+ *     {@code <name>-<i>} and has id {@code port + i}, under which it is bound in the one registry of the
+ *     daemon, on port {@code chat.host.registryPort} (default 1099); the group settings apply to each of them</li>
+ *     <li>{@code groups.create}: comma-separated groups to create if the peer is not in them yet, each
+ *     as {@code group} or {@code group:crdt} for a {@link GroupMode#CRDT} group</li>
+ *     <li>{@code groups.join}: comma-separated {@code group@host:port} to join if the peer is not in them yet</li>
+ *     <li>{@code control.port}: port on the loopback interface for {@link ChatDaemonControl} (default none)</li>
+ *     <li>any {@code chat.*} property, such as {@code chat.wal.fsync}, which is set as a system property</li>
+ * </ul>
+ * The peers are shut down cleanly on SIGTERM, Ctrl-C or the {@code shutdown} control command.
+ */
+public class ChatDaemon {
+    private final PeerHost host;
+
+    /**
+     * The hosted identities by name, in the order they were started.
+     */
+    private final Map<String, ChatEngine> engines = new LinkedHashMap<>();
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final AtomicBoolean stopping = new AtomicBoolean();
+
+    private ChatDaemon(PeerHost host) {
+        this.host = host;
+    }
+
+    /**
+     * Entrypoint for the daemon.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: ChatDaemon <config file>");
+            System.exit(2);
+        }
+
+        Properties config = new Properties();
+        try (InputStream in = Files.newInputStream(Paths.get(args[0]))) {
+            config.load(in);
+        }
+
+        // Set before the backend classes are loaded, since they read their settings once
+        System.setProperty("java.awt.headless", "true");
+        for (String key : config.stringPropertyNames()) {
+            if (key.startsWith("chat.")) {
+                System.setProperty(key, config.getProperty(key));
+            }
+        }
+
+        String name = config.getProperty("name");
+        String port = config.getProperty("port");
+        if (name == null || name.isEmpty() || port == null) {
+            System.err.println("The configuration needs a name and a port");
+            System.exit(2);
+        }
+        int selfPort = Integer.parseInt(port.trim());
+        int count = Integer.parseInt(config.getProperty("count", "1").trim());
+
+        Logger.setOwner(name, selfPort);
+        // A single identity keeps a registry of its own on its port, like any other peer
+        ChatDaemon daemon = new ChatDaemon(count == 1 ? new PeerHost() : new PeerHost(PeerHost.SHARED_REGISTRY_PORT));
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop, "daemon-shutdown"));
+
+        for (int i = 0; i < count; i++) {
+            String identity = count == 1 ? name : name + "-" + i;
+            ChatEngine engine = new ChatEngine(identity, selfPort + i, daemon.host);
+            synchronized (daemon.engines) {
+                daemon.engines.put(identity, engine);
+            }
+            ChatDaemon.setUpGroups(engine, config);
+        }
+
+        ChatDaemonControl control = null;
+        String controlPort = config.getProperty("control.port");
+        if (controlPort != null) {
+            control = new ChatDaemonControl(daemon, Integer.parseInt(controlPort.trim()));
+            control.start();
+        }
+
+        Logger.logInfo("Daemon %s running %d identities from port %d", name, count, selfPort);
+        daemon.stopped.await();
+        if (control != null) {
+            control.close();
+        }
+        // RMI keeps non-daemon threads alive after the engine is shut down
+        System.exit(0);
+    }
+
+    /**
+     * Creates and joins the configured groups the peer is not in yet. A peer that was
+     * running before gets its groups back from its data directory.
+     */
+    private static void setUpGroups(ChatEngine engine, Properties config) {
+        for (String entry : list(config.getProperty("groups.create"))) {
+            int colon = entry.lastIndexOf(':');
+            String groupName = colon < 0 ? entry : entry.substring(0, colon);
+            Optional<GroupMode> mode = colon < 0 ? Optional.of(GroupMode.CONSENSUS) : parseMode(entry.substring(colon + 1));
+            if (!mode.isPresent()) {
+                Logger.logError("Invalid group to create: %s", entry);
+            } else if (!findGroup(engine, groupName).isPresent() && !engine.createGroup(groupName, mode.get())) {
+                Logger.logError("Could not create group %s", groupName);
+            }
+        }
+
+        for (String entry : list(config.getProperty("groups.join"))) {
+            int at = entry.lastIndexOf('@');
+            int colon = entry.lastIndexOf(':');
+            if (at <= 0 || colon < at) {
+                Logger.logError("Invalid group to join: %s", entry);
+                continue;
+            }
+
+            String groupName = entry.substring(0, at);
+            if (findGroup(engine, groupName).isPresent()) {
+                continue;
+            }
+            try {
+                int port = Integer.parseInt(entry.substring(colon + 1));
+                if (!engine.joinGroup(entry.substring(at + 1, colon), port, groupName).isPresent()) {
+                    Logger.logError("Could not join group %s", entry);
+                }
+            } catch (NumberFormatException e) {
+                Logger.logError("Invalid group to join: %s", entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the hosted identities, in the order they were started.
+     *
+     * @return the names
+     */
+    List<String> getIdentities() {
+        synchronized (engines) {
+            return new ArrayList<>(engines.keySet());
+        }
+    }
+
+    /**
+     * Returns the engine of the given identity.
+     *
+     * @param identity the name of the identity
+     * @return the engine, or empty if no such identity is hosted
+     */
+    Optional<ChatEngine> getEngine(String identity) {
+        synchronized (engines) {
+            return Optional.ofNullable(engines.get(identity));
+        }
+    }
+
+    /**
+     * Returns the group of a peer with the given name.
+     *
+     * @param engine    the peer
+     * @param groupName the name of the group
+     * @return the group, or empty if the peer is not in it
+     */
+    static Optional<Group> findGroup(ChatEngine engine, String groupName) {
+        return engine.getGroups().stream().filter(group -> group.name.equals(groupName)).findFirst();
+    }
+
+    /**
+     * Parses the name of a group mode, ignoring case.
+     *
+     * @param value the name, such as {@code crdt}
+     * @return the mode, or empty if there is no such mode
+     */
+    static Optional<GroupMode> parseMode(String value) {
+        for (GroupMode mode : GroupMode.values()) {
+            if (mode.name().equalsIgnoreCase(value)) {
+                return Optional.of(mode);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Shuts the peers down, once, and lets the main thread exit. Later calls wait for
+     * the first one, so that the JVM does not halt halfway through on SIGTERM.
+     */
+    void stop() {
+        if (!stopping.compareAndSet(false, true)) {
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        Logger.logInfo("Daemon shutting down");
+        try {
+            List<ChatEngine> running;
+            synchronized (engines) {
+                running = new ArrayList<>(engines.values());
+            }
+            for (ChatEngine engine : running) {
+                engine.shutdown();
+            }
+            host.shutdown();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private static List<String> list(String value) {
+        if (value == null) {
+            return List.of();
+        }
+        return Arrays.stream(value.split(",")).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,176 @@
+package chat.frontend.daemon;
+
+import chat.backend.ChatEngine;
+import chat.backend.Group;
+import chat.backend.GroupMode;
+import chat.backend.SendResult;
+import chat.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Line-based control interface of a {@link ChatDaemon}, listening on the loopback
+ * interface only, so that it can be driven with {@code nc localhost <port>}.
+ * <p>
+ * Each command is one line, answered by zero or more lines and then {@code OK}
+ * or {@code ERROR <reason>}. Commands apply to the identity selected on the
+ * connection, the first one hosted until another is selected:
+ * <ul>
+ *     <li>{@code identities}: the names of the hosted identities</li>
+ *     <li>{@code use <identity>}: selects the identity the next commands apply to</li>
+ *     <li>{@code status}: the name of the identity and its number of groups</li>
+ *     <li>{@code groups}: one line per group with its mode and its number of peers and messages</li>
+ *     <li>{@code create <group> [consensus|crdt]}: creates a group, a consensus one by default</li>
+ *     <li>{@code join <group> <host> <port>}: joins a group through one of its peers</li>
+ *     <li>{@code send <group> <text>}: sends a message to a group</li>
+ *     <li>{@code shutdown}: shuts all the identities down and stops the daemon</li>
+ * </ul>
+ * Connections are served one at a time.
+ */
+class ChatDaemonControl {
+    private final ChatDaemon daemon;
+    private final ServerSocket serverSocket;
+
+    /**
+     * Opens the control port.
+     *
+     * @param daemon the daemon to control
+     * @param port   the port, on the loopback interface
+     * @throws IOException if the port cannot be opened
+     */
+    ChatDaemonControl(ChatDaemon daemon, int port) throws IOException {
+        this.daemon = daemon;
+        this.serverSocket = new ServerSocket(port, 8, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Starts serving connections on a background thread.
+     */
+    void start() {
+        Thread thread = new Thread(this::serve, "daemon-control");
+        thread.setDaemon(true);
+        thread.start();
+        Logger.logInfo("Control interface listening on %s", serverSocket.getLocalSocketAddress());
+    }
+
+    /**
+     * Stops serving connections.
+     */
+    void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept();
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+                String line;
+                String identity = daemon.getIdentities().get(0);
+                while ((line = in.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+
+                    String[] words = line.trim().split("\\s+");
+                    if (words[0].equals("use")) {
+                        if (words.length == 2 && daemon.getEngine(words[1]).isPresent()) {
+                            identity = words[1];
+                            out.println("OK");
+                        } else {
+                            out.println("ERROR no such identity");
+                        }
+                    } else if (!handle(daemon.getEngine(identity).get(), line.trim(), out)) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    Logger.logError("Control connection failed: %s", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a command as the given identity and writes its answer.
+     *
+     * @return false if the daemon is shutting down
+     */
+    private boolean handle(ChatEngine engine, String line, PrintWriter out) {
+        String[] words = line.split("\\s+", 3);
+
+        switch (words[0]) {
+            case "identities":
+                daemon.getIdentities().forEach(out::println);
+                out.println("OK");
+                return true;
+            case "status":
+                out.printf("name %s%n", engine.getDisplayName());
+                out.printf("groups %d%n", engine.getGroups().size());
+                out.println("OK");
+                return true;
+            case "groups":
+                for (Group group : engine.getGroups()) {
+                    out.printf("%s mode=%s peers=%d messages=%d%n", group.name, group.mode.name().toLowerCase(),
+                            group.peerAddresses.size(), group.history.size());
+                }
+                out.println("OK");
+                return true;
+            case "create":
+                Optional<GroupMode> mode = words.length == 3 ? ChatDaemon.parseMode(words[2]) : Optional.of(GroupMode.CONSENSUS);
+                if (words.length < 2 || !mode.isPresent()) {
+                    out.println("ERROR usage: create <group> [consensus|crdt]");
+                } else {
+                    out.println(engine.createGroup(words[1], mode.get()) ? "OK" : "ERROR group already exists");
+                }
+                return true;
+            case "join":
+                String[] args = line.split("\\s+");
+                if (args.length != 4) {
+                    out.println("ERROR usage: join <group> <host> <port>");
+                    return true;
+                }
+                try {
+                    boolean joined = engine.joinGroup(args[2], Integer.parseInt(args[3]), args[1]).isPresent();
+                    out.println(joined ? "OK" : "ERROR could not join");
+                } catch (NumberFormatException e) {
+                    out.println("ERROR invalid port");
+                }
+                return true;
+            case "send":
+                if (words.length != 3) {
+                    out.println("ERROR usage: send <group> <text>");
+                    return true;
+                }
+                Optional<Group> group = ChatDaemon.findGroup(engine, words[1]);
+                if (!group.isPresent()) {
+                    out.println("ERROR no such group");
+                } else {
+                    SendResult result = engine.sendMessage(words[2], group.get());
+                    out.println(result == SendResult.SENT ? "OK" : "ERROR " + result.name().toLowerCase());
+                }
+                return true;
+            case "shutdown":
+                out.println("OK");
+                daemon.stop();
+                return false;
+            default:
+                out.println("ERROR unknown command " + words[0]);
+                return true;
+        }
+    }
+}
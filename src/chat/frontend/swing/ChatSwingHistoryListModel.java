@@ -0,0 +1,129 @@
+package chat.frontend.swing;
+
+import chat.backend.ChatBackend;
+import chat.backend.Group;
+import chat.backend.GroupMode;
+import chat.backend.Message;
+import chat.backend.history.HistoryPage;
+import chat.backend.history.HistoryQuery;
+
+import javax.swing.*;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * List model over the history of a group that loads messages from the backend
+ * one page at a time, as the list asks for them.
+ * <p>
+ * Only a fixed number of pages is kept, so memory use does not depend on the size
+ * of the history. Like every Swing model, it must only be used on the event dispatch thread.
+ */
+class ChatSwingHistoryListModel extends AbstractListModel<Message> {
+
+    /**
+     * Number of messages loaded from the backend at once.
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * Number of pages kept in memory.
+     */
+    private static final int CACHED_PAGES = 8;
+
+    private final ChatBackend backend;
+    private final Group group;
+
+    /**
+     * Loaded pages keyed by page number, least recently used first.
+     */
+    private final Map<Integer, List<Message>> pages = new LinkedHashMap<Integer, List<Message>>(CACHED_PAGES * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Message>> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+
+    private int size;
+
+    /**
+     * Creates a model over the history of the given group.
+     *
+     * @param backend the backend to load messages from
+     * @param group   the group whose history is listed
+     */
+    ChatSwingHistoryListModel(ChatBackend backend, Group group) {
+        this.backend = backend;
+        this.group = group;
+        this.size = historySize();
+    }
+
+    /**
+     * Returns the name of the listed group.
+     *
+     * @return the name of the group
+     */
+    String getGroupName() {
+        return group.name;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Message getElementAt(int index) {
+        int number = index / PAGE_SIZE;
+        List<Message> page = pages.get(number);
+        if (page == null) {
+            long first = (long) number * PAGE_SIZE;
+            HistoryPage read = backend.readHistory(group, HistoryQuery.sequences(first, first + PAGE_SIZE),
+                    HistoryPage.FIRST_PAGE, PAGE_SIZE);
+            page = read.messages;
+            pages.put(number, page);
+        }
+
+        int offset = index % PAGE_SIZE;
+        return offset < page.size() ? page.get(offset) : null;
+    }
+
+    /**
+     * Catches up with the messages added to the history since the last call.
+     *
+     * @return the number of messages that were added, or -1 if the history was replaced
+     */
+    int refresh() {
+        int oldSize = size;
+        int newSize = historySize();
+
+        if (newSize < oldSize) {
+            // The history was replaced, nothing loaded so far can be trusted
+            pages.clear();
+            size = newSize;
+            fireIntervalRemoved(this, newSize, oldSize - 1);
+            if (newSize > 0) {
+                fireContentsChanged(this, 0, newSize - 1);
+            }
+            return -1;
+        }
+
+        if (newSize > oldSize && group.mode == GroupMode.CRDT) {
+            // Messages received late take their place among the earlier ones, so any page may have moved
+            pages.clear();
+            size = newSize;
+            fireIntervalAdded(this, oldSize, newSize - 1);
+            fireContentsChanged(this, 0, oldSize - 1);
+        } else if (newSize > oldSize) {
+            // The last page may have been loaded before it was full
+            pages.remove((oldSize - 1) / PAGE_SIZE);
+            size = newSize;
+            fireIntervalAdded(this, oldSize, newSize - 1);
+        }
+        return newSize - oldSize;
+    }
+
+    private int historySize() {
+        return (int) backend.readHistory(group, HistoryQuery.since(0), HistoryPage.FIRST_PAGE, 0).historySize;
+    }
+}
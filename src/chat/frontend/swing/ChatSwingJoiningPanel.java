@@ -1,6 +1,8 @@
 package chat.frontend.swing;
 
+import chat.backend.ChatBackend;
 import chat.backend.Group;
+import chat.backend.GroupMode;
 
 import javax.swing.*;
 import java.awt.*;
@@ -12,8 +14,8 @@ import static javax.swing.JOptionPane.showMessageDialog;
 
 /**
  * Panel used for joining a group.
- * The panel contains three UI components: a text field for the group's port, a text field for the group's name,
- * and a button for joining the group.
+ * The panel contains four UI components: a text field for the group's port, a text field for the group's name,
+ * a choice of the mode of the group if it has to be created, and a button for joining the group.
  */
 public class ChatSwingJoiningPanel extends JPanel {
 
@@ -21,13 +23,14 @@ public class ChatSwingJoiningPanel extends JPanel {
     private final ChatSwingSession session;
     private final JTextFieldHinted groupPortTextField;
     private final JTextFieldHinted groupNameTextField;
+    private final JComboBox<GroupMode> groupModeComboBox;
     private final JButton joinGroupButton;
 
     ChatSwingJoiningPanel(ChatSwingMain parent, ChatSwingSession session)
             throws MalformedURLException, IllegalArgumentException, RemoteException {
         this.parent = parent;
         this.session = session;
-        setMaximumSize(new Dimension(300, 50));
+        setMaximumSize(new Dimension(420, 50));
         setLayout(new FlowLayout(FlowLayout.TRAILING));
 
         groupPortTextField = new JTextFieldHinted("Group port");
@@ -40,6 +43,12 @@ public class ChatSwingJoiningPanel extends JPanel {
         groupNameTextField.setEnabled(false);
         add(groupNameTextField);
 
+        groupModeComboBox = new JComboBox<>(GroupMode.values());
+        groupModeComboBox.setToolTipText("Mode of the group if it has to be created");
+        groupModeComboBox.setPreferredSize(new Dimension(110, 25));
+        groupModeComboBox.setEnabled(false);
+        add(groupModeComboBox);
+
         joinGroupButton = new JButton("Join");
         joinGroupButton.setPreferredSize(new Dimension(75, 25));
         joinGroupButton.setEnabled(false);
@@ -55,7 +64,7 @@ public class ChatSwingJoiningPanel extends JPanel {
                 } catch (NumberFormatException e) {
                     throw new IllegalArgumentException("Invalid port number!");
                 }
-                joinGroup(groupPort, groupName);
+                joinGroup(groupPort, groupName, (GroupMode) groupModeComboBox.getSelectedItem());
             } catch (Exception e) {
                 showMessageDialog(null, e.getMessage());
             }
@@ -64,27 +73,51 @@ public class ChatSwingJoiningPanel extends JPanel {
     }
 
     /**
-     * Joins a group with the given port and name.
+     * Joins a group with the given port and name, or creates it in the given mode if it cannot be found.
+     * The group is joined in the background through the outbox of the session,
+     * and the user is told about the outcome once it is known.
      *
      * @param port      the port of the group
      * @param groupName the name of the group
+     * @param mode      the mode of the group if it is created
      * @throws MalformedURLException if the URL of the group is malformed
      * @throws IllegalArgumentException if the port number is invalid or the group name is empty
      * @throws RemoteException if a remote communication error occurs
      */
-    private void joinGroup(int port, String groupName)
+    private void joinGroup(int port, String groupName, GroupMode mode)
             throws MalformedURLException, IllegalArgumentException, RemoteException {
         if (groupName != null && !groupName.isEmpty() && session.isLoggedIn()) {
-            Optional<Group> group = session.getBackend().joinGroup("localhost", port, groupName);
-            if (group.isPresent()) {
-                session.setCurrentlyActiveGroup(group.get());
-                showMessageDialog(null, String.format("Joined group %s at port %d!", groupName, port));
-            } else {
-                session.getBackend().createGroup(groupName);
-                showMessageDialog(null,
-                        String.format("No groups found with name %s at port %d! New group created!", groupName, port));
+            ChatBackend backend = session.getBackend();
+            session.getOutbox().submit(groupName, String.format("Join at port %d", port), () -> {
+                Optional<Group> group = backend.joinGroup("localhost", port, groupName);
+                boolean success;
+                String outcome;
+                if (group.isPresent()) {
+                    success = true;
+                    outcome = String.format("Joined group %s at port %d!", groupName, port);
+                } else {
+                    success = backend.createGroup(groupName, mode);
+                    outcome = String.format("No groups found with name %s at port %d! New group created!",
+                            groupName, port);
+                }
 
-            }
+                SwingUtilities.invokeLater(() -> {
+                    if (session.getBackend() != backend) {
+                        // Logged out in the meantime
+                        return;
+                    }
+                    group.ifPresent(session::setCurrentlyActiveGroup);
+                    if (success) {
+                        showMessageDialog(null, outcome);
+                    }
+                    try {
+                        parent.refreshMessages();
+                    } catch (Exception e) {
+                        showMessageDialog(null, e.getMessage());
+                    }
+                });
+                return success;
+            });
         }
         parent.refreshUI();
     }
@@ -98,6 +131,8 @@ public class ChatSwingJoiningPanel extends JPanel {
         groupNameTextField.reset();
         groupPortTextField.setEnabled(session.isLoggedIn());
         groupNameTextField.setEnabled(session.isLoggedIn());
+        groupModeComboBox.setSelectedItem(GroupMode.CONSENSUS);
+        groupModeComboBox.setEnabled(session.isLoggedIn());
         joinGroupButton.setEnabled(session.isLoggedIn());
     }
 }
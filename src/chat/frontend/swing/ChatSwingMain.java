@@ -1,5 +1,7 @@
 package chat.frontend.swing;
 
+import chat.backend.ChatBackend;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
@@ -23,7 +25,7 @@ public class ChatSwingMain extends JFrame {
 	ChatSwingMain() throws MalformedURLException, RemoteException, RuntimeException, ExecutionException, InterruptedException {
 		super("Decentralized Chat");
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		setPreferredSize(new Dimension(600, 500));
+		setPreferredSize(new Dimension(600, 560));
 		setResizable(false);
 
 		JPanel panel = new JPanel(new BorderLayout());
@@ -53,8 +55,11 @@ public class ChatSwingMain extends JFrame {
 		addWindowListener(new WindowAdapter() {
 			@Override
 			public void windowClosing(WindowEvent e) {
-				if (session.isLoggedIn()) {
-					session.getBackend().shutdown();
+				// Stop the outbox before the peer, so that no queued action runs against it
+				ChatBackend backend = session.getBackend();
+				session.purge();
+				if (backend != null) {
+					backend.shutdown();
 				}
 				System.exit(0);
 			}
@@ -85,4 +90,12 @@ public class ChatSwingMain extends JFrame {
 		chatSwingReceivingPanel.refreshUI();
 		chatSwingSendingPanel.refreshUI();
 	}
+
+	/**
+	 * Refresh the panel showing the groups and their messages, leaving the input panels untouched.
+	 */
+	protected void refreshMessages()
+			throws MalformedURLException, IllegalArgumentException, RemoteException {
+		chatSwingReceivingPanel.refreshUI();
+	}
 }
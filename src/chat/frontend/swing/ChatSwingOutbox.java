@@ -0,0 +1,194 @@
+package chat.frontend.swing;
+
+import chat.backend.SendResult;
+import chat.backend.SerialExecutor;
+import chat.logging.Logger;
+
+import javax.swing.*;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queue of user actions that are carried out in the background, so that the
+ * window never waits for a Paxos round.
+ * <p>
+ * Actions are run in the order they were submitted within a group, on a few threads
+ * shared by all groups, while different groups proceed independently. Every action is shown
+ * in a list model along with whether it is pending, sent, failed or rejected
+ * because the peer was overloaded.
+ */
+class ChatSwingOutbox {
+
+    /**
+     * Maximum number of actions kept in the list. The oldest finished ones are dropped first.
+     */
+    private static final int MAX_ITEMS = 100;
+
+    /**
+     * Number of threads carrying out actions, and so of groups whose actions run at once.
+     */
+    private static final int THREADS = 4;
+
+    /**
+     * State of an action in the outbox.
+     */
+    enum State {
+        PENDING, SENT, FAILED, REJECTED
+    }
+
+    /**
+     * An action in the outbox.
+     */
+    static class Item {
+        private final String groupName;
+        private final String description;
+        private volatile State state = State.PENDING;
+
+        private Item(String groupName, String description) {
+            this.groupName = groupName;
+            this.description = description;
+        }
+
+        /**
+         * Returns the state of the action.
+         *
+         * @return the state
+         */
+        State getState() {
+            return state;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%s] %s: %s", state.name().toLowerCase(), groupName, description);
+        }
+    }
+
+    /**
+     * Actions shown to the user, only changed on the event dispatch thread.
+     */
+    private final DefaultListModel<Item> items = new DefaultListModel<>();
+
+    /**
+     * Threads shared by the queues of all groups, stopped with the session.
+     */
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "outbox-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Queues of actions keyed by group name.
+     */
+    private final Map<String, SerialExecutor> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the list model showing the actions and their states.
+     *
+     * @return the list model
+     */
+    ListModel<Item> getItems() {
+        return items;
+    }
+
+    /**
+     * Queues an action for a group. Must be called on the event dispatch thread.
+     *
+     * @param groupName   the group the action belongs to
+     * @param description what the action does, as shown to the user
+     * @param action      the action, returning whether it succeeded
+     */
+    void submit(String groupName, String description, Callable<Boolean> action) {
+        run(groupName, description, () -> action.call() ? State.SENT : State.FAILED);
+    }
+
+    /**
+     * Queues a message or file to send to a group. Must be called on the event dispatch thread.
+     *
+     * @param groupName   the group the message or file is sent to
+     * @param description what is sent, as shown to the user
+     * @param action      the action sending it
+     */
+    void submitSend(String groupName, String description, Callable<SendResult> action) {
+        run(groupName, description, () -> {
+            switch (action.call()) {
+                case SENT:
+                    return State.SENT;
+                case REJECTED:
+                    return State.REJECTED;
+                default:
+                    return State.FAILED;
+            }
+        });
+    }
+
+    private void run(String groupName, String description, Callable<State> action) {
+        Item item = new Item(groupName, description);
+        items.addElement(item);
+        trim();
+
+        try {
+            queue(groupName).execute(() -> carryOut(item, description, action));
+        } catch (RejectedExecutionException e) {
+            // The session has ended
+            finish(item, State.FAILED);
+        }
+    }
+
+    private void carryOut(Item item, String description, Callable<State> action) {
+        State state;
+        try {
+            state = action.call();
+        } catch (Exception e) {
+            Logger.logError("Outbox: %s failed: %s", description, e.getMessage());
+            state = State.FAILED;
+        }
+        finish(item, state);
+    }
+
+    private void finish(Item item, State state) {
+        item.state = state;
+        SwingUtilities.invokeLater(() -> {
+            int index = items.indexOf(item);
+            if (index >= 0) {
+                items.set(index, item);
+            }
+        });
+    }
+
+    private SerialExecutor queue(String groupName) {
+        return queues.computeIfAbsent(groupName, name -> new SerialExecutor(executor));
+    }
+
+    /**
+     * Stops carrying out actions. Actions still queued are dropped, and the ones submitted later fail.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Drops the oldest finished actions once the list is too long.
+     */
+    private void trim() {
+        for (int i = 0; i < items.size() && items.size() > MAX_ITEMS; ) {
+            if (items.get(i).getState() == State.PENDING) {
+                i++;
+            } else {
+                items.remove(i);
+            }
+        }
+    }
+}
@@ -1,24 +1,27 @@
 package chat.frontend.swing;
 
+import chat.backend.ChatBackend;
 import chat.backend.Group;
+import chat.backend.GroupListener;
 import chat.backend.Message;
 
 import javax.swing.*;
 import java.awt.*;
 import java.net.MalformedURLException;
 import java.rmi.RemoteException;
-import java.text.Format;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This panel displays the messages in the chat application.
+ * <p>
+ * Messages are shown in a list that only renders the visible rows and loads the
+ * history page by page as it is scrolled. The view is updated when the backend
+ * reports new messages, with bursts coalesced into a single update on the event
+ * dispatch thread.
  */
 public class ChatSwingReceivingPanel extends JPanel {
 
@@ -26,7 +29,8 @@ public class ChatSwingReceivingPanel extends JPanel {
     private final JList<Group> groupJList;
     private final ChatSwingSession session;
     private final JScrollPane groupListJScrollPane;
-    private final JTextArea groupMessagesJTextArea;
+    private final JList<Message> groupMessagesJList;
+    private final JScrollPane groupMessagesJScrollPane;
 
     /**
      * Constructs a new ChatSwingReceivingPanel with the specified parent and session.
@@ -53,6 +57,7 @@ public class ChatSwingReceivingPanel extends JPanel {
         groupJList.addListSelectionListener(listSelectionEvent -> {
             if (!listSelectionEvent.getValueIsAdjusting()) {
                 session.setCurrentlyActiveGroup(groupJList.getSelectedValue());
+                scheduleUpdate();
             }
         });
 
@@ -61,13 +66,16 @@ public class ChatSwingReceivingPanel extends JPanel {
         groupListJScrollPane.setEnabled(false);
         add(groupListJScrollPane);
 
-        groupMessagesJTextArea = new JTextArea();
-        groupMessagesJTextArea.setPreferredSize(new Dimension(375, 400));
-        groupMessagesJTextArea.setEditable(false);
-        groupMessagesJTextArea.setEnabled(false);
-        add(groupMessagesJTextArea);
+        // Fixed cell sizes let the list lay out any number of rows without rendering them
+        groupMessagesJList = new JList<>();
+        groupMessagesJList.setFixedCellHeight(groupMessagesJList.getFontMetrics(groupMessagesJList.getFont()).getHeight() + 2);
+        groupMessagesJList.setFixedCellWidth(MESSAGE_CELL_WIDTH);
+        groupMessagesJList.setCellRenderer(new MessageCellRenderer());
+        groupMessagesJList.setEnabled(false);
 
-        new ChatSwingWorkerViewUpdate(Executors.newScheduledThreadPool(1)).schedule();
+        groupMessagesJScrollPane = new JScrollPane(groupMessagesJList);
+        groupMessagesJScrollPane.setPreferredSize(new Dimension(375, 400));
+        add(groupMessagesJScrollPane);
     }
 
     /**
@@ -81,64 +89,154 @@ public class ChatSwingReceivingPanel extends JPanel {
             throws MalformedURLException, IllegalArgumentException, RemoteException {
         if (!session.isLoggedIn()) {
             groupJList.clearSelection();
-            groupMessagesJTextArea.setText(null);
+            groupMessagesJList.setModel(new DefaultListModel<>());
+            displayedGroupName = null;
         } else {
+            if (listenedBackend != session.getBackend()) {
+                listenedBackend = session.getBackend();
+                listenedBackend.addGroupListener(new ViewUpdater());
+            }
             if (groupJList.getModel().getSize() != session.getGroups().size()) {
-                groupJList.setListData(session.getGroups().toArray(new Group[0]));
+                showGroups();
             }
+            scheduleUpdate();
         }
         groupJList.setEnabled(session.isLoggedIn());
         groupListJScrollPane.setEnabled(session.isLoggedIn());
-        groupMessagesJTextArea.setEnabled(session.isLoggedIn());
+        groupMessagesJList.setEnabled(session.isLoggedIn());
+    }
+
+    /**
+     * Replaces the listed groups with the current ones, keeping the selected group selected.
+     */
+    private void showGroups() {
+        Group selected = groupJList.getSelectedValue();
+        Group[] groups = session.getGroups().toArray(new Group[0]);
+        groupJList.setListData(groups);
+
+        for (int i = 0; i < groups.length; i++) {
+            if (selected != null && groups[i].name.equals(selected.name)) {
+                groupJList.setSelectedIndex(i);
+            }
+        }
     }
 
     /**
-     * Worker thread used to periodically grab the latest changes and update the state.
+     * Width of a message row. Longer messages are cut off.
+     */
+    private static final int MESSAGE_CELL_WIDTH = 350;
+
+    /**
+     * Formats message timestamps. Unlike SimpleDateFormat it is thread-safe, so one instance is enough.
      */
-    private class ChatSwingWorkerViewUpdate extends SwingWorker<List<Message>, Message> {
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("MM/dd/yyyy, hh:mm:ss a").withZone(ZoneId.systemDefault());
 
-        private final ScheduledExecutorService service;
+    /**
+     * Backend that the view listens to.
+     */
+    private ChatBackend listenedBackend;
 
-        /**
-         * Constructs a new ChatSwingWorkerViewUpdate with the specified executor service.
-         *
-         * @param service the executor service
-         */
-        private ChatSwingWorkerViewUpdate(ScheduledExecutorService service) {
-            this.service = service;
+    /**
+     * Name of the group whose messages are displayed, or null if none are.
+     * Written on the event dispatch thread and read by the backend's listener calls.
+     */
+    private volatile String displayedGroupName;
+
+    /**
+     * Model of the displayed history, or null if no group is displayed.
+     */
+    private ChatSwingHistoryListModel historyModel;
+
+    /**
+     * Whether an update is already queued on the event dispatch thread.
+     */
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+
+    /**
+     * Queues an update of the view, unless one is queued already.
+     */
+    private void scheduleUpdate() {
+        if (updateScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::updateView);
         }
+    }
+
+    /**
+     * Brings the view up to date with the active group. Runs on the event dispatch thread.
+     */
+    private void updateView() {
+        // Cleared first, so that messages added from now on queue another update
+        updateScheduled.set(false);
+        if (!session.isLoggedIn() || !session.ifAnyGroupActive()) {
+            return;
+        }
+
+        Group group = session.getCurrentlyActiveGroup();
+        if (historyModel == null || !historyModel.getGroupName().equals(group.name)) {
+            // Newly opened group, start at its latest message
+            historyModel = new ChatSwingHistoryListModel(session.getBackend(), group);
+            displayedGroupName = group.name;
+            groupMessagesJList.setModel(historyModel);
+            scrollToLatest();
+            return;
+        }
+
+        boolean atLatest = groupMessagesJList.getLastVisibleIndex() >= historyModel.getSize() - 1;
+        int added = historyModel.refresh();
+        if (added < 0 || (added > 0 && atLatest)) {
+            // Follow new messages, unless the user scrolled back through the history
+            scrollToLatest();
+        }
+    }
+
+    private void scrollToLatest() {
+        int size = historyModel.getSize();
+        if (size > 0) {
+            groupMessagesJList.ensureIndexIsVisible(size - 1);
+        }
+    }
 
-        /**
-         * Schedules the worker thread.
-         */
-        public void schedule() {
-            service.schedule(new ChatSwingWorkerViewUpdate(service), 100, TimeUnit.MILLISECONDS);
+    /**
+     * Renders a message as a single line of text.
+     */
+    private static class MessageCellRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            String text = "";
+            if (value instanceof Message) {
+                Message m = (Message) value;
+                text = String.format("[%s] %s: %s", TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(m.getTimestamp())),
+                        m.getFrom(), m.getContents());
+            }
+            return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
         }
+    }
 
+    /**
+     * Queues a view update when the displayed group gets new messages, or when the groups change.
+     */
+    private class ViewUpdater implements GroupListener {
         @Override
-        protected List<Message> doInBackground() {
-            schedule();
-            if (session.isLoggedIn() && session.ifAnyGroupActive()) {
-                return session.getCurrentlyActiveGroup().getHistory();
+        public void messageAdded(String groupName, long sequence, Message message) {
+            if (groupName.equals(displayedGroupName)) {
+                scheduleUpdate();
             }
-            return new ArrayList<>();
         }
 
         @Override
-        protected void done() {
-            try {
-                if (groupMessagesJTextArea != null && session.isLoggedIn() && session.ifAnyGroupActive()) {
-                    groupMessagesJTextArea.setText(null);
-                    for (Message m : get()) {
-                        Date date = new Date(m.getTimestamp());
-                        Format format = new SimpleDateFormat("MM/dd/yyyy, hh:mm:ss aaa");
-                        groupMessagesJTextArea.append(String.format("[%s] %s: %s\n",
-                                format.format(date), m.getFrom(), m.getContents()));
-                    }
+        public void groupChanged(String groupName) {
+            SwingUtilities.invokeLater(() -> {
+                if (session.isLoggedIn()) {
+                    showGroups();
                 }
-            } catch (ExecutionException | InterruptedException e) {
-                e.printStackTrace();
-            }
+                if (groupName.equals(displayedGroupName)) {
+                    // Its history was replaced, so reload it from scratch
+                    historyModel = null;
+                }
+                scheduleUpdate();
+            });
         }
     }
 }
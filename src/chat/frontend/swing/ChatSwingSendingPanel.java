@@ -1,12 +1,14 @@
 package chat.frontend.swing;
 
-import chat.backend.Message;
+import chat.backend.ChatBackend;
+import chat.backend.Group;
 
 import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 import javax.swing.filechooser.FileSystemView;
 import java.awt.*;
 import java.io.File;
-import java.io.IOException;
 import java.net.MalformedURLException;
 import java.rmi.RemoteException;
 
@@ -14,6 +16,7 @@ import static javax.swing.JOptionPane.showMessageDialog;
 
 /**
  * This panel allows the user to send a message or upload a file.
+ * Both are queued in the outbox of the session, whose actions are listed below the input.
  */
 public class ChatSwingSendingPanel extends JPanel {
 
@@ -37,7 +40,8 @@ public class ChatSwingSendingPanel extends JPanel {
             throws MalformedURLException, IllegalArgumentException, RemoteException {
         this.parent = parent;
         this.session = session;
-        setMaximumSize(new Dimension(600, 50));
+        setMaximumSize(new Dimension(600, 120));
+        setPreferredSize(new Dimension(600, 110));
         setLayout(new FlowLayout(FlowLayout.CENTER));
 
         fileChooseButton = new JButton("Upload");
@@ -49,20 +53,14 @@ public class ChatSwingSendingPanel extends JPanel {
             if (chosenOption == JFileChooser.APPROVE_OPTION) {
                 File selectedFile = fileChooser.getSelectedFile();
                 if (session.isLoggedIn() && selectedFile.exists()) {
-                    // Call file upload from here
-                    String path = selectedFile.getAbsolutePath();
-                    try {
-                        boolean success = session.getBackend().sendFile(selectedFile, session.getCurrentlyActiveGroup());
-                        if (success) {
-                            session.getCurrentlyActiveGroup().addMessageToGroupHistory(
-                                    new Message(session.getBackend().getDisplayName(),
-                                            "Sent file: " + selectedFile.getName(),
-                                            System.currentTimeMillis())
-                            );
-                        }
-                    } catch (IOException ex) {
-                        showMessageDialog(null, ex.getMessage());
+                    if (!session.ifAnyGroupActive()) {
+                        showMessageDialog(null, "Please select a group first!");
+                        return;
                     }
+                    ChatBackend backend = session.getBackend();
+                    Group group = session.getCurrentlyActiveGroup();
+                    session.getOutbox().submitSend(group.name, "File " + selectedFile.getName(),
+                            () -> backend.sendFile(selectedFile, group));
                 }
             }
         });
@@ -86,9 +84,9 @@ public class ChatSwingSendingPanel extends JPanel {
                     if (!session.ifAnyGroupActive()) {
                         throw new IllegalArgumentException("Please select a group first!");
                     }
-                    session.getCurrentlyActiveGroup()
-                            .addMessageToGroupHistory(new Message(session.getBackend().getDisplayName(), message, System.currentTimeMillis()));
-                    session.getBackend().sendMessage(message, session.getCurrentlyActiveGroup());
+                    ChatBackend backend = session.getBackend();
+                    Group group = session.getCurrentlyActiveGroup();
+                    session.getOutbox().submitSend(group.name, message, () -> backend.sendMessage(message, group));
                 }
                 parent.refreshUI();
             } catch (Exception e) {
@@ -96,6 +94,28 @@ public class ChatSwingSendingPanel extends JPanel {
             }
         });
         add(sendMessageButton);
+
+        JList<ChatSwingOutbox.Item> outboxList = new JList<>(session.getOutbox().getItems());
+        outboxList.setFocusable(false);
+        outboxList.setVisibleRowCount(3);
+        JScrollPane outboxScrollPane = new JScrollPane(outboxList);
+        outboxScrollPane.setPreferredSize(new Dimension(585, 60));
+        // Follow the newest action
+        outboxList.getModel().addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                outboxList.ensureIndexIsVisible(e.getIndex1());
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+            }
+        });
+        add(outboxScrollPane);
     }
 
     /**
@@ -15,6 +15,7 @@ public class ChatSwingSession {
     private ChatBackend backend;
     @Nullable
     private Group currentlyActiveGroup;
+    private final ChatSwingOutbox outbox = new ChatSwingOutbox();
 
     /**
      * Checks if the user is logged in to the chat engine.
@@ -83,9 +84,20 @@ public class ChatSwingSession {
     }
 
     /**
-     * Purges this user session by resetting the currently active group and chat engine instances to null.
+     * Returns the outbox that carries out the actions of the user in the background.
+     *
+     * @return the outbox
+     */
+    ChatSwingOutbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Purges this user session by resetting the currently active group and chat engine instances to null,
+     * and stops the outbox, dropping the actions it has not carried out yet.
      */
     public void purge() {
+        outbox.shutdown();
         currentlyActiveGroup = null;
         backend = null;
     }
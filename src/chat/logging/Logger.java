@@ -1,21 +1,92 @@
 package chat.logging;
 
-import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.CREATE;
 
 /**
  * Provides convenience methods to log messages and errors along with a timestamp.
+ * <p>
+ * Logging only puts the line in a bounded queue. A background thread formats the
+ * queued lines and writes them to the log file in batches, flushing whenever it
+ * runs out of lines and at least once per second. Lines below the configured level
+ * are discarded before anything is formatted, so the methods taking a format and
+ * arguments cost next to nothing when their level is disabled.
+ * <p>
+ * The logger is configured through system properties:
+ * <ul>
+ *     <li>{@code chat.log.level}: the lowest level written, DEBUG, INFO or ERROR (default INFO)</li>
+ *     <li>{@code chat.log.whenFull}: {@code block} to wait for room when the queue is full,
+ *     or {@code drop} to drop the line and report how many were dropped (default block)</li>
+ *     <li>{@code chat.log.maxBytes}: the size after which the log file is rotated (default 10 MB)</li>
+ * </ul>
  */
 public class Logger {
-    private static PrintStream logStream = null;
+
+    /**
+     * Severity of a log line.
+     */
+    public enum Level {
+        DEBUG, INFO, ERROR
+    }
+
+    private static final Level LEVEL = Level.valueOf(System.getProperty("chat.log.level", "INFO").toUpperCase());
+    private static final boolean DROP_WHEN_FULL = "drop".equalsIgnoreCase(System.getProperty("chat.log.whenFull", "block"));
+    private static final long MAX_FILE_BYTES = Long.getLong("chat.log.maxBytes", 10L * 1024 * 1024);
+
+    /**
+     * Number of rotated log files kept next to the current one.
+     */
+    private static final int ROTATED_FILES = 5;
+
+    /**
+     * Number of lines the queue holds before logging blocks or drops.
+     */
+    private static final int QUEUE_CAPACITY = 8192;
+
+    /**
+     * Maximum number of lines written before the writer looks at the queue again.
+     */
+    private static final int BATCH_SIZE = 512;
+
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss:SSS").withZone(ZoneId.systemDefault());
+
+    private static final BlockingQueue<Line> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicLong droppedLines = new AtomicLong();
+
+    /**
+     * Guards the log file, which is only written by the background thread and replaced by {@link #setOwner}.
+     */
+    private static final Object fileLock = new Object();
+    private static Path logPath = null;
+    private static Writer logWriter = null;
+    private static long logBytes;
+    private static long lastFlush;
+
+    private static volatile boolean ownerSet = false;
+    private static Thread writerThread = null;
 
     /**
      * Set the owner of the logger. This is used to create a log file.
@@ -23,42 +94,250 @@ public class Logger {
     public static void setOwner(String displayName, int port) {
         String fileName = String.format("app_data/%s-%d/logs.txt", displayName, port);
         Path path = FileSystems.getDefault().getPath(fileName);
-        try {
-            Files.createDirectories(path.getParent());
-            logStream = new PrintStream(new BufferedOutputStream(
-                    Files.newOutputStream(path, CREATE, APPEND)
-            ));
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.err.println("Failed to create log file");
-            System.exit(1);
+        synchronized (fileLock) {
+            try {
+                // Lines logged so far belong to the previous owner
+                writeBatch(drain());
+                closeFile();
+                Files.createDirectories(path.getParent());
+                openFile(path);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Failed to create log file");
+                System.exit(1);
+            }
+            ownerSet = true;
+            startWriter();
         }
     }
 
+    /**
+     * Returns whether lines of the given level are written.
+     *
+     * @param level the level
+     * @return true if the level is enabled
+     */
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
     /**
      * Log an error message.
      */
     public static void logError(String msg) {
-        log(msg, "ERROR");
+        log(Level.ERROR, msg, null);
     }
 
+    /**
+     * Log an error message, formatted from the given format and arguments only if it is written.
+     */
+    public static void logError(String format, Object... args) {
+        log(Level.ERROR, format, args);
+    }
 
     /**
      * Log an info message.
      */
     public static void logInfo(String msg) {
-        log(msg, "INFO");
+        log(Level.INFO, msg, null);
+    }
+
+    /**
+     * Log an info message, formatted from the given format and arguments only if it is written.
+     */
+    public static void logInfo(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    /**
+     * Log a debug message.
+     */
+    public static void logDebug(String msg) {
+        log(Level.DEBUG, msg, null);
+    }
+
+    /**
+     * Log a debug message, formatted from the given format and arguments only if it is written.
+     */
+    public static void logDebug(String format, Object... args) {
+        log(Level.DEBUG, format, args);
     }
 
     // Helper method
-    private static void log(String msg, String level) {
-        if (logStream == null) {
+    private static void log(Level level, String msg, Object[] args) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        if (!ownerSet) {
             System.err.println("Log owner not set");
             return;
         }
 
-        String timeStamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss:SSS").format(new java.util.Date());
-        logStream.printf("[%s] %s: %s\n", level, timeStamp, msg);
-        logStream.flush();
+        Line line = new Line(level, System.currentTimeMillis(), msg, args);
+        if (DROP_WHEN_FULL) {
+            if (!queue.offer(line)) {
+                droppedLines.incrementAndGet();
+            }
+        } else {
+            try {
+                queue.put(line);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedLines.incrementAndGet();
+            }
+        }
+    }
+
+    private static void startWriter() {
+        if (writerThread != null) {
+            return;
+        }
+        writerThread = new Thread(Logger::writeLoop, "logger");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        // Write out whatever is still queued when the application exits
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            synchronized (fileLock) {
+                try {
+                    writeBatch(drain());
+                    flush();
+                } catch (IOException e) {
+                    System.err.println("Failed to write log file: " + e.getMessage());
+                }
+            }
+        }, "logger-shutdown"));
+    }
+
+    private static void writeLoop() {
+        List<Line> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                Line first = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                }
+
+                synchronized (fileLock) {
+                    writeBatch(batch);
+                    long now = System.currentTimeMillis();
+                    if (queue.isEmpty() || now - lastFlush >= FLUSH_INTERVAL_MS) {
+                        flush();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Failed to write log file: " + e.getMessage());
+            }
+            batch.clear();
+        }
+    }
+
+    private static List<Line> drain() {
+        List<Line> lines = new ArrayList<>();
+        queue.drainTo(lines);
+        return lines;
+    }
+
+    /**
+     * Writes the given lines to the log file. Must be called while holding the file lock.
+     */
+    private static void writeBatch(List<Line> lines) throws IOException {
+        if (logWriter == null) {
+            return;
+        }
+
+        long dropped = droppedLines.getAndSet(0);
+        if (dropped > 0) {
+            write(new Line(Level.ERROR, System.currentTimeMillis(),
+                    "Logger: Dropped %d line(s) because the queue was full", new Object[]{dropped}));
+        }
+        for (Line line : lines) {
+            write(line);
+        }
+    }
+
+    private static void write(Line line) throws IOException {
+        String text = String.format("[%s] %s: %s\n", line.level, TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(line.time)),
+                line.message());
+        logWriter.write(text);
+        logBytes += text.length();
+        if (logBytes >= MAX_FILE_BYTES) {
+            rotate();
+        }
+    }
+
+    private static void flush() throws IOException {
+        if (logWriter != null) {
+            logWriter.flush();
+        }
+        lastFlush = System.currentTimeMillis();
+    }
+
+    /**
+     * Moves the current log file to logs.1.txt, shifting older ones up and deleting the oldest.
+     */
+    private static void rotate() throws IOException {
+        Path path = logPath;
+        closeFile();
+
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        String extension = dot < 0 ? "" : name.substring(dot);
+
+        Files.deleteIfExists(path.resolveSibling(base + "." + ROTATED_FILES + extension));
+        for (int i = ROTATED_FILES - 1; i >= 1; i--) {
+            Path older = path.resolveSibling(base + "." + i + extension);
+            if (Files.exists(older)) {
+                Files.move(older, path.resolveSibling(base + "." + (i + 1) + extension), REPLACE_EXISTING);
+            }
+        }
+        Files.move(path, path.resolveSibling(base + ".1" + extension), REPLACE_EXISTING);
+        openFile(path);
+    }
+
+    private static void openFile(Path path) throws IOException {
+        logPath = path;
+        logWriter = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(path, CREATE, APPEND), StandardCharsets.UTF_8), 64 * 1024);
+        logBytes = Files.size(path);
+    }
+
+    private static void closeFile() throws IOException {
+        if (logWriter != null) {
+            logWriter.close();
+            logWriter = null;
+        }
+    }
+
+    /**
+     * A line waiting to be written. Its message is only formatted by the writer.
+     */
+    private static class Line {
+        private final Level level;
+        private final long time;
+        private final String format;
+        private final Object[] args;
+
+        private Line(Level level, long time, String format, Object[] args) {
+            this.level = level;
+            this.time = time;
+            this.format = format;
+            this.args = args;
+        }
+
+        private String message() {
+            if (args == null) {
+                return format;
+            }
+            try {
+                return String.format(format, args);
+            } catch (IllegalFormatException e) {
+                return format;
+            }
+        }
     }
 }